@@ -0,0 +1,335 @@
+/**
+ * BlobStoreConnections tunes and measures the HTTP connections of the BlobStore contexts.
+ *  - Pool: jclouds sends the requests with the HTTP client of the JDK and sets the number of idle
+ *    connections kept alive for every host (http.maxConnections) from jclouds.max-connections-per-context,
+ *    20 by default. In a parallel transfer the connections above that number are closed after every
+ *    request and the next request opens a new connection with a new TLS handshake. The number of
+ *    connections kept alive is raised for the parallel modes.
+ *  - Properties: the configuration properties starting with "jclouds." (timeouts, threads, retries)
+ *    are given to every context.
+ *  - Metrics: the requests of every provider are counted from its jclouds HTTP logger and the new
+ *    TLS connections from the handshakes of the default SSL socket factory, the rest of the HTTPS
+ *    requests reused a connection kept alive.
+ *  - Endpoint: the requests of a provider can be sent to another endpoint (Ex.: a local S3-compatible
+ *    server) with another jclouds API, the buckets are then addressed by path instead of by host name.
+ *    The requests are still counted for the provider.
+ * Configuration properties (all optional):
+ *  - http_max_connections       = Idle connections kept alive for every host
+ *  - connection_stats           = Count the requests and the new TLS connections (true/false)
+ *  - jclouds.connection-timeout = Timeout to open a connection in milliseconds
+ *  - jclouds.so-timeout         = Timeout waiting for data on a connection in milliseconds
+ *  - jclouds.*                  = Any other jclouds property
+ *  - endpoint_<PROVIDER>        = Endpoint URL used instead of the one of the provider
+ *  - endpoint_<PROVIDER>_api    = jclouds API or provider used with that endpoint (Ex.: s3), the provider by default
+ * The same properties can be given as system properties (-D), http_max_connections is the
+ * property jclouds.max-connections-per-context.
+ */
+
+package example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.logging.Logger;
+import org.jclouds.logging.config.LoggingModule;
+import org.jclouds.logging.jdk.JDKLogger;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Module;
+
+
+public class BlobStoreConnections {
+
+    private static final String SENDING_REQUEST = "Sending request ";   // Log message of jclouds for every request
+    private static final String HTTPS = " https://";
+    private static final String ENDPOINT = "endpoint_";                 // Prefix of the endpoint overrides
+    private static final String API = "_api";
+
+    // Defaults of the parallel modes
+    private static final String DEFAULT_MAX_CONNECTIONS = "32";
+    private static final String DEFAULT_CONNECTION_TIMEOUT = "10000";
+    private static final String DEFAULT_SO_TIMEOUT = "60000";
+
+    private static final Properties overrides = new Properties();
+    private static final Map<String, String> endpoints = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> handshakes = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, AtomicLong>> requests = new ConcurrentHashMap<>();
+    private static boolean statistics = false;
+
+
+    /**
+     * Get the connection configuration from the configuration properties, it must be called
+     * before the first context is built
+     */
+    public static synchronized void configure(Properties prop, boolean parallel) {
+        overrides.clear();
+        String maxConnections = System.getProperty("http_max_connections",
+                prop.getProperty("http_max_connections", parallel ? DEFAULT_MAX_CONNECTIONS : null));
+        if (maxConnections != null) {
+            overrides.setProperty("jclouds.max-connections-per-context", maxConnections.trim());
+        }
+        if (parallel) {
+            overrides.setProperty("jclouds.connection-timeout", DEFAULT_CONNECTION_TIMEOUT);
+            overrides.setProperty("jclouds.so-timeout", DEFAULT_SO_TIMEOUT);
+        }
+        for (String name : prop.stringPropertyNames()) {
+            if (name.startsWith("jclouds.")) {
+                overrides.setProperty(name, System.getProperty(name, prop.getProperty(name)).trim());
+            }
+        }
+
+        endpoints.clear();
+        Set<String> names = new HashSet<>(prop.stringPropertyNames());
+        names.addAll(System.getProperties().stringPropertyNames());
+        for (String name : names) {
+            String value = System.getProperty(name, prop.getProperty(name));
+            if (name.startsWith(ENDPOINT) && value != null && !value.trim().isEmpty()) {
+                endpoints.put(name, value.trim());
+            }
+        }
+
+        statistics = Boolean.parseBoolean(System.getProperty("connection_stats",
+                prop.getProperty("connection_stats", "true")).trim());
+        if (statistics && !(HttpsURLConnection.getDefaultSSLSocketFactory() instanceof CountingSocketFactory)) {
+            HttpsURLConnection.setDefaultSSLSocketFactory(
+                    new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory()));
+        }
+    }
+
+
+    /**
+     * Create the builder of a context with the connection properties and the request counter of the provider,
+     * sent to the endpoint of the provider if it is overridden
+     */
+    public static ContextBuilder newBuilder(String provider) {
+        Properties properties = new Properties();
+        properties.putAll(overrides);
+        String endpoint = endpoints.get(ENDPOINT + provider);
+        ContextBuilder builder;
+        if (endpoint == null) {
+            builder = ContextBuilder.newBuilder(provider);
+        } else {
+            String api = endpoints.getOrDefault(ENDPOINT + provider + API, provider);
+            if ("s3".equals(api) || "aws-s3".equals(api)) {
+                // A local endpoint has no host name for every bucket
+                properties.setProperty("jclouds.s3.virtual-host-buckets", "false");
+            }
+            builder = ContextBuilder.newBuilder(api).endpoint(endpoint);
+        }
+        builder.overrides(properties);
+        if (statistics) {
+            Map<String, AtomicLong> providerRequests = requests.computeIfAbsent(provider, p -> new ConcurrentHashMap<>());
+            builder.modules(ImmutableSet.<Module>of(new CountingLoggingModule(providerRequests)));
+        }
+        return builder;
+    }
+
+
+    /**
+     * Print the requests of a provider and how many of them opened a new TLS connection
+     */
+    public static void printStatistics(String provider) {
+        Map<String, AtomicLong> providerRequests = requests.get(provider);
+        if (!statistics || providerRequests == null) {
+            return;
+        }
+        long total = 0;
+        long newConnections = 0;
+        for (Map.Entry<String, AtomicLong> entry : providerRequests.entrySet()) {
+            total += entry.getValue().get();
+            AtomicLong hostHandshakes = handshakes.get(entry.getKey());
+            newConnections += hostHandshakes == null ? 0 : hostHandshakes.get();
+        }
+        long reused = Math.max(0, total - newConnections);
+        System.out.printf("Connections on \"%s\": %d HTTPS requests, %d new TLS connections, %d reused (%d%%), "
+                        + "pool of %s connections per host\n",
+                provider, total, newConnections, reused, total == 0 ? 0 : reused * 100 / total,
+                System.getProperty("http.maxConnections", "20"));
+    }
+
+
+    /**
+     * Logging module of jclouds that counts the HTTPS requests of a context by host and sends
+     * the messages to the default logger
+     */
+    private static class CountingLoggingModule extends LoggingModule {
+        private final Map<String, AtomicLong> hostRequests;
+
+        CountingLoggingModule(Map<String, AtomicLong> hostRequests) {
+            this.hostRequests = hostRequests;
+        }
+
+        @Override
+        public Logger.LoggerFactory createLoggerFactory() {
+            Logger.LoggerFactory delegate = new JDKLogger.JDKLoggerFactory();
+            return category -> new CountingLogger(delegate.getLogger(category), hostRequests);
+        }
+    }
+
+
+    /**
+     * Logger that counts the requests sent, the messages are "Sending request ID: METHOD URI HTTP/1.1"
+     */
+    private static class CountingLogger implements Logger {
+        private final Logger delegate;
+        private final Map<String, AtomicLong> hostRequests;
+
+        CountingLogger(Logger delegate, Map<String, AtomicLong> hostRequests) {
+            this.delegate = delegate;
+            this.hostRequests = hostRequests;
+        }
+
+        @Override
+        public void debug(String message, Object... args) {
+            if (message.startsWith(SENDING_REQUEST) && args.length == 2) {
+                String requestLine = String.valueOf(args[1]);
+                int start = requestLine.indexOf(HTTPS);
+                if (start >= 0) {
+                    start += HTTPS.length();
+                    int end = start;
+                    while (end < requestLine.length() && "/:? ".indexOf(requestLine.charAt(end)) < 0) {
+                        end++;
+                    }
+                    hostRequests.computeIfAbsent(requestLine.substring(start, end), h -> new AtomicLong())
+                            .incrementAndGet();
+                }
+            }
+            delegate.debug(message, args);
+        }
+
+        @Override
+        public String getCategory() {
+            return delegate.getCategory();
+        }
+
+        @Override
+        public void trace(String message, Object... args) {
+            delegate.trace(message, args);
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return delegate.isTraceEnabled();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return delegate.isDebugEnabled();
+        }
+
+        @Override
+        public void info(String message, Object... args) {
+            delegate.info(message, args);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return delegate.isInfoEnabled();
+        }
+
+        @Override
+        public void warn(String message, Object... args) {
+            delegate.warn(message, args);
+        }
+
+        @Override
+        public void warn(Throwable throwable, String message, Object... args) {
+            delegate.warn(throwable, message, args);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return delegate.isWarnEnabled();
+        }
+
+        @Override
+        public void error(String message, Object... args) {
+            delegate.error(message, args);
+        }
+
+        @Override
+        public void error(Throwable throwable, String message, Object... args) {
+            delegate.error(throwable, message, args);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return delegate.isErrorEnabled();
+        }
+    }
+
+
+    /**
+     * SSL socket factory that counts the TLS handshakes by host, every handshake is a new connection
+     */
+    private static class CountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final HandshakeCompletedListener listener = event -> handshakes.computeIfAbsent(
+                String.valueOf(event.getSession().getPeerHost()), h -> new AtomicLong()).incrementAndGet();
+
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket count(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                ((SSLSocket) socket).addHandshakeCompletedListener(listener);
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return count(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return count(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return count(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return count(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
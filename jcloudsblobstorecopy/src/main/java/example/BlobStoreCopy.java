@@ -0,0 +1,162 @@
+/**
+ * BlobStoreCopy is an example that handles BlobStore containers.
+ * Copy or move Blobs inside a provider, without downloading them, in several cloud providers:
+ *  - S3 bucket on AWS (Amazon Web Services)
+ *  - Blob Storage container on Microsoft Azure
+ *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * You must provide 5 parameters:
+ * OPERATION             = copy or move (a move deletes the source after the copy)
+ * CONTAINER_NAME        = Name of the source container
+ * SOURCE_NAME           = Name of the source Blob, a name ending with / is a prefix and all its Blobs are copied
+ * TARGET_CONTAINER_NAME = Name of the target container, it can be the source container
+ * TARGET_NAME           = Name of the target Blob, or the target prefix if the source is a prefix
+ */
+
+package example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.jclouds.blobstore.BlobStoreContext;
+
+
+public class BlobStoreCopy {
+
+    private static String awsAccessKeyId;           // AWS Access Key ID
+    private static String awsSecretKey;             // AWS Secret Key
+    private static String azureAccountName;         // Azure Storage Account Name
+    private static String azureAccountKey;          // Azure Storage Account Key
+    private static String gcloudClientEmail;        // Google Cloud Client email
+    private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the copies, the retries and the connections
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 5 || !("copy".equals(args[0]) || "move".equals(args[0]))) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorecopy.jar <copy|move> <CONTAINER_NAME> <SOURCE_NAME> <TARGET_CONTAINER_NAME> <TARGET_NAME>");
+            System.exit(1);
+        }
+
+        // Copy or move
+        boolean move = "move".equals(args[0]);
+        // The source container and Blob or prefix
+        String containerName = args[1];
+        String sourceName = args[2];
+        // The target container and Blob or prefix
+        String targetContainerName = args[3];
+        String targetName = args[4];
+
+        System.out.println("Operation:             " + args[0]);
+        System.out.println("Container name:        " + containerName);
+        System.out.println("Source name:           " + sourceName);
+        System.out.println("Target container name: " + targetContainerName);
+        System.out.println("Target name:           " + targetName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // The Blobs of a prefix are copied in parallel
+        BlobStoreConnections.configure(configuration, true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        copyBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, sourceName, targetContainerName, targetName, move);
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        copyBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, sourceName, targetContainerName, targetName, move);
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        copyBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, sourceName, targetContainerName, targetName, move);
+    }
+
+
+    /**
+     * Load Configuration from a file and get the authentication credentials for every provider
+     */
+    private static void loadConfiguration() {
+
+        // The connection string is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        // AWS
+        awsAccessKeyId = prop.getProperty("aws_access_key_id");
+        awsSecretKey = prop.getProperty("aws_secret_access_key");
+        // Azure
+        azureAccountName = prop.getProperty("azure_account_name");
+        azureAccountKey = prop.getProperty("azure_account_key");
+        // Google Cloud
+        gcloudClientEmail = prop.getProperty("gcloud_client_email");
+        gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Copies, retries and connections
+        configuration = prop;
+    }
+
+
+    /**
+     * Copy or move a Blob or a prefix inside a provider
+     */
+    private static void copyBlobStore(String provider, String identity, String credential,
+                                      String containerName, String sourceName,
+                                      String targetContainerName, String targetName, boolean move) {
+        // Init
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+
+        System.out.printf("%s BlobStore Blobs on \"%s\" ...\n", move ? "Moving" : "Copying", provider);
+
+        // Instantiate a BlobStore copier, the provider copies the bytes
+        BlobStoreServerCopy copier = BlobStoreServerCopy.fromProperties(provider, context, retry, configuration);
+
+        long start = System.currentTimeMillis();
+        try {
+            long failed = 0;
+            if (sourceName.endsWith("/")) {
+                failed = copier.copyPrefix(containerName, sourceName, targetContainerName, targetName, move);
+            } else {
+                copier.copyBlob(containerName, sourceName, targetContainerName, targetName, move);
+            }
+            if (failed > 0) {
+                System.out.printf("Error: %d Blobs not %s, see the errors above.\n", failed,
+                        move ? "moved" : "copied");
+            } else {
+                System.out.printf("%s in %d ms.\n", move ? "Moved" : "Copied", System.currentTimeMillis() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            copier.printStatistics();
+            copier.close();
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+    }
+}
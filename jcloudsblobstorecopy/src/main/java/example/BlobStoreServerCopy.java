@@ -0,0 +1,356 @@
+/**
+ * BlobStoreServerCopy copies and moves Blobs inside a provider without downloading them, the
+ * provider copies the bytes and the client only sends the requests:
+ *  - AWS S3: one copy request up to the multipart threshold (5 GB is the limit of S3), larger Blobs
+ *    are copied with a multipart upload whose parts are copied from ranges of the source in parallel.
+ *  - Google Cloud Storage: one copy request up to the multipart threshold, larger Blobs are
+ *    rewritten with as many rewrite requests as the provider needs.
+ *  - Azure Blob Storage: one copy request for any size, the copy runs in the provider and its
+ *    status is checked until it ends.
+ * A prefix is copied listing its Blobs and copying them in parallel. A move deletes every source
+ * Blob after its copy has been checked (same size), so a failed copy never loses the source.
+ * Configuration properties (all optional):
+ *  - copy_concurrency         = Blobs (and parts) copied at the same time
+ *  - copy_multipart_threshold = Size of the Blobs copied in parts (AWS S3) or rewritten (Google Cloud)
+ *  - copy_part_size           = Size of the parts of a multipart copy (AWS S3)
+ */
+
+package example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.googlecloudstorage.GoogleCloudStorageApi;
+import org.jclouds.googlecloudstorage.domain.RewriteResponse;
+import org.jclouds.googlecloudstorage.options.RewriteObjectOptions;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.io.ContentMetadata;
+import org.jclouds.s3.S3Client;
+import org.jclouds.s3.domain.ObjectMetadataBuilder;
+import org.jclouds.util.Strings2;
+
+
+public class BlobStoreServerCopy {
+
+    private static final long MAX_S3_PART_SIZE = 5L * 1024 * 1024 * 1024;     // Largest part copied by S3
+    private static final int MAX_S3_PARTS = 10000;                            // Maximum number of parts in S3
+    private static final long AZURE_STATUS_DELAY_MILLIS = 1000;               // Delay between status checks
+
+    private final String provider;
+    private final BlobStoreContext context;
+    private final BlobStore blobStore;
+    private final BlobStoreRetry retry;
+    private final int concurrency;
+    private final long multipartThreshold;
+    private final long partSize;
+
+    // Blob copies and part copies have their own threads, so the Blobs can wait for their parts
+    private final ExecutorService blobExecutor;
+    private final ExecutorService partExecutor;
+
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong multipart = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+
+    public BlobStoreServerCopy(String provider, BlobStoreContext context, BlobStoreRetry retry, int concurrency,
+                               long multipartThreshold, long partSize) {
+        this.provider = provider;
+        this.context = context;
+        this.blobStore = context.getBlobStore();
+        this.retry = retry;
+        this.concurrency = Math.max(1, concurrency);
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = partSize;
+        this.blobExecutor = Executors.newFixedThreadPool(this.concurrency);
+        this.partExecutor = Executors.newFixedThreadPool(this.concurrency);
+    }
+
+
+    /**
+     * Create the copier of a provider from the configuration properties
+     */
+    public static BlobStoreServerCopy fromProperties(String provider, BlobStoreContext context, BlobStoreRetry retry,
+                                                     Properties prop) {
+        return new BlobStoreServerCopy(provider, context, retry,
+                Integer.parseInt(prop.getProperty("copy_concurrency", "16").trim()),
+                Long.parseLong(prop.getProperty("copy_multipart_threshold", "5368709120").trim()),
+                Long.parseLong(prop.getProperty("copy_part_size", "536870912").trim()));
+    }
+
+
+    /**
+     * Copy a Blob, and delete the source if it is a move
+     */
+    public void copyBlob(String sourceContainer, String sourceName, String targetContainer, String targetName,
+                         boolean move) throws IOException {
+        if (sourceContainer.equals(targetContainer) && sourceName.equals(targetName)) {
+            throw new IllegalArgumentException("The source and the target are the same Blob");
+        }
+        BlobMetadata source = retry.call("blobMetadata", () -> blobStore.blobMetadata(sourceContainer, sourceName));
+        if (source == null) {
+            throw new IOException("Blob \"" + sourceName + "\" not found in \"" + sourceContainer + "\"");
+        }
+        copy(source, targetContainer, targetName, move);
+    }
+
+
+    /**
+     * Copy all the Blobs of a prefix in parallel, the prefix of their names is replaced by the target prefix,
+     * and delete the sources if it is a move. Every failed Blob is printed and the copy goes on with the rest,
+     * the number of failed Blobs is returned
+     */
+    public long copyPrefix(String sourceContainer, String sourcePrefix, String targetContainer, String targetPrefix,
+                           boolean move) throws IOException, InterruptedException {
+        if (sourceContainer.equals(targetContainer) && targetPrefix.startsWith(sourcePrefix)) {
+            // The copies would be listed again as sources
+            throw new IllegalArgumentException("The target prefix can not be inside the source prefix");
+        }
+        // The listing waits while there are too many copies queued
+        Semaphore queued = new Semaphore(concurrency * 4);
+        AtomicLong prefixFailed = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        ListContainerOptions options = ListContainerOptions.Builder.prefix(sourcePrefix).recursive();
+        String marker = null;
+        do {
+            ListContainerOptions pageOptions = marker == null ? options : options.clone().afterMarker(marker);
+            PageSet<? extends StorageMetadata> page = retry.call("list",
+                    () -> blobStore.list(sourceContainer, pageOptions));
+            for (StorageMetadata metadata : page) {
+                if (metadata.getType() != StorageType.BLOB) {
+                    continue;
+                }
+                String targetName = targetPrefix + metadata.getName().substring(sourcePrefix.length());
+                queued.acquire();
+                futures.add(blobExecutor.submit(() -> {
+                    try {
+                        BlobMetadata source = retry.call("blobMetadata",
+                                () -> blobStore.blobMetadata(sourceContainer, metadata.getName()));
+                        if (source == null) {
+                            throw new IOException("Blob not found");
+                        }
+                        copy(source, targetContainer, targetName, move);
+                    } catch (IOException | RuntimeException e) {
+                        prefixFailed.incrementAndGet();
+                        System.out.printf("Error: \"%s\" not copied: %s\n", metadata.getName(), firstLine(e));
+                    } finally {
+                        queued.release();
+                    }
+                }));
+            }
+            futures.removeIf(Future::isDone);
+            marker = page.getNextMarker();
+        } while (marker != null);
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // The errors are printed and counted by every copy
+            }
+        }
+        return prefixFailed.get();
+    }
+
+
+    /**
+     * Print the Blobs and bytes copied
+     */
+    public void printStatistics() {
+        System.out.printf("Copies on \"%s\": %d Blobs copied (%d in parts), %.1f MB, %d deleted, %d failed\n",
+                provider, copied.get(), multipart.get(), copiedBytes.get() / (1024.0 * 1024.0), deleted.get(),
+                failed.get());
+    }
+
+
+    /**
+     * Stop the threads of the copies
+     */
+    public void close() {
+        blobExecutor.shutdownNow();
+        partExecutor.shutdownNow();
+    }
+
+
+    private void copy(BlobMetadata source, String targetContainer, String targetName, boolean move)
+            throws IOException {
+        String sourceContainer = source.getContainer();
+        String sourceName = source.getName();
+        Long size = source.getContentMetadata().getContentLength();
+        long length = size == null ? 0 : size;
+        try {
+            if (length > multipartThreshold && "aws-s3".equals(provider)) {
+                copyParts(source, length, targetContainer, targetName);
+                multipart.incrementAndGet();
+            } else if (length > multipartThreshold && "google-cloud-storage".equals(provider)) {
+                rewrite(sourceContainer, sourceName, targetContainer, targetName);
+                multipart.incrementAndGet();
+            } else {
+                retry.call("copyBlob", () -> blobStore.copyBlob(sourceContainer, sourceName,
+                        targetContainer, targetName, CopyOptions.NONE));
+                if ("azureblob".equals(provider)) {
+                    waitForAzureCopy(targetContainer, targetName);
+                }
+            }
+
+            if (move) {
+                // The source is only deleted when the copy is complete
+                BlobMetadata target = retry.call("blobMetadata",
+                        () -> blobStore.blobMetadata(targetContainer, targetName));
+                Long targetSize = target == null ? null : target.getContentMetadata().getContentLength();
+                if (targetSize == null || targetSize != length) {
+                    throw new IOException("Copy of \"" + sourceName + "\" not complete, the source is kept");
+                }
+                retry.call("removeBlob", () -> {
+                    blobStore.removeBlob(sourceContainer, sourceName);
+                    return null;
+                });
+                deleted.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        }
+        copied.incrementAndGet();
+        copiedBytes.addAndGet(length);
+    }
+
+
+    /**
+     * Copy a large Blob in AWS S3 with a multipart upload, every part is copied from a range of the source
+     */
+    private void copyParts(BlobMetadata source, long length, String targetContainer, String targetName)
+            throws IOException {
+        S3Client s3 = context.unwrapApi(S3Client.class);
+        long size = Math.min(MAX_S3_PART_SIZE, Math.max(partSize, (length + MAX_S3_PARTS - 1) / MAX_S3_PARTS));
+        int parts = (int) ((length + size - 1) / size);
+
+        ContentMetadata content = source.getContentMetadata();
+        ObjectMetadataBuilder metadata = ObjectMetadataBuilder.create()
+                .key(targetName)
+                .userMetadata(source.getUserMetadata())
+                .contentType(content.getContentType())
+                .contentDisposition(content.getContentDisposition())
+                .contentEncoding(content.getContentEncoding())
+                .contentLanguage(content.getContentLanguage());
+        String uploadId = retry.call("initiateMultipartUpload",
+                () -> s3.initiateMultipartUpload(targetContainer, metadata.build()));
+
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int part = 1; part <= parts; part++) {
+                int partNumber = part;
+                long start = (part - 1) * size;
+                long end = Math.min(length, start + size) - 1;
+                futures.add(partExecutor.submit(() -> retry.call("uploadPartCopy",
+                        () -> s3.uploadPartCopy(targetContainer, targetName, partNumber, uploadId,
+                                source.getContainer(), source.getName(), start, end))));
+            }
+            Map<Integer, String> eTags = new TreeMap<>();
+            for (int part = 1; part <= parts; part++) {
+                eTags.put(part, futures.get(part - 1).get());
+            }
+            retry.call("completeMultipartUpload",
+                    () -> s3.completeMultipartUpload(targetContainer, targetName, uploadId, eTags));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(s3, targetContainer, targetName, uploadId);
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            abort(s3, targetContainer, targetName, uploadId);
+            throw new IOException("Part not copied: " + firstLine(e.getCause()), e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abort(s3, targetContainer, targetName, uploadId);
+            throw e;
+        }
+    }
+
+
+    private void abort(S3Client s3, String containerName, String blobName, String uploadId) {
+        try {
+            s3.abortMultipartUpload(containerName, blobName, uploadId);
+        } catch (RuntimeException e) {
+            System.out.printf("Error: Multipart upload \"%s\" not aborted: %s\n", uploadId, firstLine(e));
+        }
+    }
+
+
+    /**
+     * Copy a large Blob in Google Cloud Storage with rewrite requests, the provider copies a part of the
+     * Blob in every request and returns a token to continue
+     */
+    private void rewrite(String sourceContainer, String sourceName, String targetContainer, String targetName)
+            throws IOException {
+        GoogleCloudStorageApi gcs = context.unwrapApi(GoogleCloudStorageApi.class);
+        // The object names are part of the path
+        String source = Strings2.urlEncode(sourceName);
+        String target = Strings2.urlEncode(targetName);
+        RewriteResponse response = retry.call("rewriteObjects",
+                () -> gcs.getObjectApi().rewriteObjects(targetContainer, target, sourceContainer, source));
+        while (!response.done()) {
+            String token = response.rewriteToken();
+            response = retry.call("rewriteObjects",
+                    () -> gcs.getObjectApi().rewriteObjects(targetContainer, target, sourceContainer, source,
+                            new RewriteObjectOptions().rewriteToken(token)));
+        }
+    }
+
+
+    /**
+     * Wait until an Azure copy ends, the status is in the headers of the target Blob. The properties are
+     * read with a HEAD request (a ranged GET fails on an empty Blob), the signed read URL also allows it
+     */
+    private void waitForAzureCopy(String containerName, String blobName) throws IOException {
+        while (true) {
+            HttpRequest request = context.getSigner().signGetBlob(containerName, blobName).toBuilder()
+                    .method("HEAD")
+                    .build();
+            HttpResponse response = retry.call("copyStatus", () -> context.utils().http().invoke(request));
+            if (response.getPayload() != null) {
+                response.getPayload().close();
+            }
+            String status = response.getFirstHeaderOrNull("x-ms-copy-status");
+            if (status == null || "success".equals(status)) {
+                return;
+            }
+            if (!"pending".equals(status)) {
+                throw new IOException("Copy of \"" + blobName + "\" " + status + ": "
+                        + response.getFirstHeaderOrNull("x-ms-copy-status-description"));
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(AZURE_STATUS_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+    }
+
+
+    private static String firstLine(Throwable e) {
+        String message = String.valueOf(e.getMessage());
+        return message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message;
+    }
+}
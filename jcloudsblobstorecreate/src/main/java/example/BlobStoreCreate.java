@@ -6,12 +6,17 @@
  *  - Cloud Storage bucket on Google Cloud Platform (GCP)
  * You must provide 1 parameter:
  * CONTAINER_NAME = Name of the container
+ * Optional parameter:
+ * PROBE_RESULTS_FILE = Results of the location probe of BlobStoreGetLocations, the container is
+ *                      created in the fastest location of every provider
  */
 
 package example;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 
 import org.jclouds.ContextBuilder;
@@ -30,11 +35,12 @@ public class BlobStoreCreate {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static long probeMaxAgeHours;           // Maximum age of the probe results used
 
     public static void main(String[] args) throws IOException {
 
         if (args.length < 1) {
-            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorecreate.jar <CONTAINER_NAME>");
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorecreate.jar <CONTAINER_NAME> [<PROBE_RESULTS_FILE>]");
             System.exit(1);
         }
 
@@ -46,27 +52,38 @@ public class BlobStoreCreate {
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
+        // The fastest location of every provider
+        Map<String, BlobStoreProbeResults.Result> fastest = Collections.emptyMap();
+        if (args.length > 1) {
+            System.out.println("Probe results file: " + args[1]);
+            fastest = BlobStoreProbeResults.fastest(args[1], probeMaxAgeHours * 3600 * 1000);
+            for (BlobStoreProbeResults.Result result : fastest.values()) {
+                System.out.printf("Fastest location on \"%s\": %s (%.1f ms)\n",
+                        result.provider, result.location, result.latencyMillis);
+            }
+        }
+
         // ******************** AWS S3 provider ********************
 
         System.out.println("AWS S3 bucket:");
 
         // With AWS it is possible to select a location
         createBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
-                            containerName, LOCATION_AWS);
+                            containerName, location(fastest, "aws-s3", LOCATION_AWS));
 
         // ******************** Azure Blob Storage provider ********************
 
         System.out.println("Azure Blob Storage container:");
 
         createBlobStore("azureblob", azureAccountName, azureAccountKey,
-                            containerName, null);
+                            containerName, location(fastest, "azureblob", null));
 
         // ******************** Google Cloud Storage provider ********************
 
         System.out.println("Google Cloud Storage bucket:");
 
         createBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
-                            containerName, null);
+                            containerName, location(fastest, "google-cloud-storage", null));
     }
 
 
@@ -93,6 +110,18 @@ public class BlobStoreCreate {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Probe
+        probeMaxAgeHours = Long.parseLong(prop.getProperty("probe_max_age_hours", "24").trim());
+    }
+
+
+    /**
+     * Get the fastest location of a provider, or the default location if it was not probed
+     */
+    private static String location(Map<String, BlobStoreProbeResults.Result> fastest, String provider,
+                                   String defaultLocation) {
+        BlobStoreProbeResults.Result result = fastest.get(provider);
+        return result == null ? defaultLocation : result.location;
     }
 
 
@@ -115,7 +144,7 @@ public class BlobStoreCreate {
         if (containerLocationString != null) {
             // Look for the location
             for (Location pLocation : blobStore.listAssignableLocations()) {
-                if (containerLocationString.contains(pLocation.getId())) {
+                if (containerLocationString.equals(pLocation.getId())) {
                     location = pLocation;
                     break;
                 }
@@ -0,0 +1,130 @@
+/**
+ * BlobStoreProbeResults keeps the results of the location probes in a local file.
+ *  - File: an append-only JSONL file with one line for every provider and location probed, so the
+ *    history of the probes is kept and the newest result of every location is used.
+ *    {"time": ..., "provider": ..., "location": ..., "latency_ms": ..., "bytes_per_second": ..., "errors": ...}
+ *  - Fastest location: the location with the lowest latency for every provider, only the results
+ *    without errors and newer than the maximum age are used.
+ */
+
+package example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+
+public class BlobStoreProbeResults {
+
+    /**
+     * Result of the probe of a location of a provider
+     */
+    public static class Result {
+        public final long time;                     // Time of the probe (milliseconds since the epoch)
+        public final String provider;
+        public final String location;
+        public final double latencyMillis;          // Median round-trip time of a metadata request
+        public final double bytesPerSecond;         // Throughput of the uploads and downloads of a small object
+        public final int errors;                    // Requests failed, the result is not used if there is any
+
+        public Result(long time, String provider, String location, double latencyMillis, double bytesPerSecond,
+                      int errors) {
+            this.time = time;
+            this.provider = provider;
+            this.location = location;
+            this.latencyMillis = latencyMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.errors = errors;
+        }
+    }
+
+
+    /**
+     * Append the results of a probe to the file
+     */
+    public static void append(String fileName, List<Result> results) throws IOException {
+        Gson gson = new Gson();
+        try (OutputStream os = new FileOutputStream(fileName, true)) {
+            for (Result result : results) {
+                JsonObject record = new JsonObject();
+                record.addProperty("time", timeFormat().format(new Date(result.time)));
+                record.addProperty("provider", result.provider);
+                record.addProperty("location", result.location);
+                record.addProperty("latency_ms", Math.round(result.latencyMillis * 10) / 10.0);
+                record.addProperty("bytes_per_second", Math.round(result.bytesPerSecond));
+                record.addProperty("errors", result.errors);
+                os.write((gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+
+    /**
+     * Get the fastest location of every provider from the newest result of every location
+     */
+    public static Map<String, Result> fastest(String fileName, long maxAgeMillis) throws IOException {
+        Map<String, Result> newest = new LinkedHashMap<>();
+        if (!new File(fileName).exists()) {
+            return newest;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+            SimpleDateFormat timeFormat = timeFormat();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    JsonObject record = new JsonParser().parse(line).getAsJsonObject();
+                    Result result = new Result(timeFormat.parse(record.get("time").getAsString()).getTime(),
+                            record.get("provider").getAsString(), record.get("location").getAsString(),
+                            record.get("latency_ms").getAsDouble(), record.get("bytes_per_second").getAsDouble(),
+                            record.get("errors").getAsInt());
+                    String key = result.provider + "/" + result.location;
+                    if (!newest.containsKey(key) || newest.get(key).time <= result.time) {
+                        newest.put(key, result);
+                    }
+                } catch (JsonParseException | IllegalStateException | NullPointerException | ParseException e) {
+                    // An incomplete or unknown line is ignored
+                }
+            }
+        }
+
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        Map<String, Result> fastest = new LinkedHashMap<>();
+        for (Result result : newest.values()) {
+            if (result.errors > 0 || result.time < oldest) {
+                continue;
+            }
+            Result best = fastest.get(result.provider);
+            if (best == null || result.latencyMillis < best.latencyMillis) {
+                fastest.put(result.provider, result);
+            }
+        }
+        return fastest;
+    }
+
+
+    private static SimpleDateFormat timeFormat() {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return timeFormat;
+    }
+}
@@ -0,0 +1,466 @@
+/**
+ * BlobStoreDaemon is an example that handles BlobStore containers.
+ * Keep the BlobStore contexts open and run the requests received on a local HTTP endpoint
+ * in several cloud providers:
+ *  - S3 bucket on AWS (Amazon Web Services)
+ *  - Blob Storage container on Microsoft Azure
+ *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * You can provide 1 parameter:
+ * PORT = Local port of the HTTP endpoint (optional)
+ * Requests (the provider parameter is optional, all the providers are used without it):
+ *  POST /create?container=CONTAINER_NAME[&provider=PROVIDER]
+ *  POST /upload?container=CONTAINER_NAME&blob=BLOB_NAME&file=LOCAL_FILE_NAME[&provider=PROVIDER]
+ *  POST /download?container=CONTAINER_NAME&blob=BLOB_NAME&file=LOCAL_FILE_NAME[&provider=PROVIDER]
+ *  GET  /list?container=CONTAINER_NAME[&provider=PROVIDER]
+ *  POST /delete?container=CONTAINER_NAME&blob=BLOB_NAME[&provider=PROVIDER]
+ *  GET  /status
+ *  POST /shutdown
+ * Every request must have the header "Authorization: Bearer TOKEN", the token is random for every start of the
+ * daemon and it is written to a file only readable by the user (daemon_token_file). The requests with a Host
+ * header that is not the local host are rejected, so a web page can not send requests to the daemon.
+ */
+
+package example;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+public class BlobStoreDaemon {
+
+    private static String awsAccessKeyId;           // AWS Access Key ID
+    private static String awsSecretKey;             // AWS Secret Key
+    private static String azureAccountName;         // Azure Storage Account Name
+    private static String azureAccountKey;          // Azure Storage Account Key
+    private static String gcloudClientEmail;        // Google Cloud Client email
+    private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the daemon, the retries and the connections
+
+    // Worker pool of every provider
+    private static final Map<String, BlobStoreWorkerPool> pools = new LinkedHashMap<>();
+    private static final CountDownLatch stopped = new CountDownLatch(1);
+
+    // Host names accepted in the Host header of the requests
+    private static final List<String> LOCAL_HOSTS = Arrays.asList("localhost", "127.0.0.1", "[::1]");
+    private static byte[] token;                    // Token of the requests, random for every start
+
+    public static void main(String[] args) throws IOException {
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // The local port of the HTTP endpoint
+        int port = args.length > 0 ? Integer.parseInt(args[0])
+                : Integer.parseInt(configuration.getProperty("daemon_port", "8090").trim());
+        int workers = Integer.parseInt(configuration.getProperty("daemon_workers", "8").trim());
+        int queueSize = Integer.parseInt(configuration.getProperty("daemon_queue_size", "1000").trim());
+        int httpThreads = Integer.parseInt(configuration.getProperty("daemon_http_threads", "32").trim());
+
+        System.out.println("Port:                 " + port);
+        System.out.println("Workers per provider: " + workers);
+        System.out.println("Queue size:           " + queueSize);
+
+        // The requests must send the token written to a file only readable by the user
+        Path tokenFile = Paths.get(configuration.getProperty("daemon_token_file", "").trim().isEmpty()
+                ? System.getProperty("user.home") + File.separator + ".jclouds-blobstore-daemon.token"
+                : configuration.getProperty("daemon_token_file").trim());
+        writeToken(tokenFile);
+        System.out.println("Token file:           " + tokenFile);
+
+        // The workers of every provider send their requests in parallel
+        BlobStoreConnections.configure(configuration, true);
+
+        // ******************** AWS S3 provider ********************
+
+        pools.put("aws-s3", new BlobStoreWorkerPool("aws-s3", awsAccessKeyId, awsSecretKey,
+                BlobStoreRetry.fromProperties(configuration), workers, queueSize));
+
+        // ******************** Azure Blob Storage provider ********************
+
+        pools.put("azureblob", new BlobStoreWorkerPool("azureblob", azureAccountName, azureAccountKey,
+                BlobStoreRetry.fromProperties(configuration), workers, queueSize));
+
+        // ******************** Google Cloud Storage provider ********************
+
+        pools.put("google-cloud-storage", new BlobStoreWorkerPool("google-cloud-storage",
+                gcloudClientEmail, gcloudPrivateKey,
+                BlobStoreRetry.fromProperties(configuration), workers, queueSize));
+
+        // The endpoint is only reachable from the local host
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService httpExecutor = Executors.newFixedThreadPool(httpThreads);
+        server.setExecutor(httpExecutor);
+        server.createContext("/create", exchange -> {
+            if (authorize(exchange, "POST")) {
+                handle(exchange, "create");
+            }
+        });
+        server.createContext("/upload", exchange -> {
+            if (authorize(exchange, "POST")) {
+                handle(exchange, "upload");
+            }
+        });
+        server.createContext("/download", exchange -> {
+            if (authorize(exchange, "POST")) {
+                handle(exchange, "download");
+            }
+        });
+        server.createContext("/list", exchange -> {
+            if (authorize(exchange, "GET")) {
+                handle(exchange, "list");
+            }
+        });
+        server.createContext("/delete", exchange -> {
+            if (authorize(exchange, "POST")) {
+                handle(exchange, "delete");
+            }
+        });
+        server.createContext("/status", exchange -> {
+            if (authorize(exchange, "GET")) {
+                status(exchange);
+            }
+        });
+        server.createContext("/shutdown", exchange -> {
+            if (authorize(exchange, "POST")) {
+                shutdown(exchange);
+            }
+        });
+        server.start();
+        System.out.printf("Listening on http://%s:%d/\n",
+                server.getAddress().getAddress().getHostAddress(), server.getAddress().getPort());
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop(1);
+        httpExecutor.shutdown();
+        for (BlobStoreWorkerPool pool : pools.values()) {
+            pool.close();
+        }
+        Files.deleteIfExists(tokenFile);
+        System.out.println("Stopped.");
+    }
+
+
+    /**
+     * Load Configuration from a file and get the authentication credentials for every provider
+     */
+    private static void loadConfiguration() {
+
+        // The connection string is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        // AWS
+        awsAccessKeyId = prop.getProperty("aws_access_key_id");
+        awsSecretKey = prop.getProperty("aws_secret_access_key");
+        // Azure
+        azureAccountName = prop.getProperty("azure_account_name");
+        azureAccountKey = prop.getProperty("azure_account_key");
+        // Google Cloud
+        gcloudClientEmail = prop.getProperty("gcloud_client_email");
+        gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Daemon, retries and connections
+        configuration = prop;
+    }
+
+
+    /**
+     * Write a new random token to a file only readable and writable by the user
+     */
+    private static void writeToken(Path tokenFile) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        token = hex.toString().getBytes(StandardCharsets.US_ASCII);
+
+        // The file is created with its permissions, so the token is never readable by other users
+        Files.deleteIfExists(tokenFile);
+        try {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the file gets the permissions of the user directory
+            Files.createFile(tokenFile);
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("Token file created by another process: " + tokenFile, e);
+        }
+        Files.write(tokenFile, token);
+    }
+
+
+    /**
+     * Check the method, the Host header and the token of a request, the rejected requests get an error response
+     */
+    private static boolean authorize(HttpExchange exchange, String method) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null || !LOCAL_HOSTS.contains(host.replaceFirst(":\\d+$", "").toLowerCase())) {
+            // DNS rebinding: a web page with a name resolved to the local host
+            respond(exchange, 403, "Error: Only requests to the local host are accepted\n");
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] received = authorization != null && authorization.startsWith("Bearer ")
+                ? authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        if (!MessageDigest.isEqual(token, received)) {
+            respond(exchange, 401, "Error: Missing or wrong token\n");
+            return false;
+        }
+        if (!method.equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", method);
+            respond(exchange, 405, "Error: Use " + method + " for this request\n");
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Run a BlobStore operation in every provider requested, in parallel, and send one line for every provider
+     */
+    private static void handle(HttpExchange exchange, String operation) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String missing = missingParameter(operation, params);
+        if (missing != null) {
+            respond(exchange, 400, "Error: Missing parameter \"" + missing + "\"\n");
+            return;
+        }
+        List<BlobStoreWorkerPool> targets = new ArrayList<>();
+        if (params.containsKey("provider")) {
+            BlobStoreWorkerPool pool = pools.get(params.get("provider"));
+            if (pool == null) {
+                respond(exchange, 400, "Error: Unknown provider \"" + params.get("provider") + "\"\n");
+                return;
+            }
+            targets.add(pool);
+        } else {
+            targets.addAll(pools.values());
+        }
+
+        long start = System.currentTimeMillis();
+        Map<BlobStoreWorkerPool, Future<String>> futures = new LinkedHashMap<>();
+        StringBuilder response = new StringBuilder();
+        int status = 200;
+        for (BlobStoreWorkerPool pool : targets) {
+            try {
+                futures.put(pool, pool.submit((blobStore, retry) -> run(operation, blobStore, retry, params)));
+            } catch (RejectedExecutionException e) {
+                response.append(pool.provider()).append("\tBUSY\tThe queue is full\n");
+                status = 503;
+            }
+        }
+        for (Map.Entry<BlobStoreWorkerPool, Future<String>> entry : futures.entrySet()) {
+            String provider = entry.getKey().provider();
+            try {
+                String result = entry.getValue().get();
+                response.append(String.format("%s\tOK\t%d ms\t%s\n",
+                        provider, System.currentTimeMillis() - start, result));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response.append(provider).append("\tERROR\tInterrupted\n");
+                status = 500;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                String message = firstLine(cause.getMessage() == null ? cause.toString() : cause.getMessage());
+                response.append(String.format("%s\tERROR\t%d ms\t%s\n", provider, System.currentTimeMillis() - start,
+                        cause instanceof IOException ? "IO Exception: " + message : message));
+                status = status == 200 ? 500 : status;
+            }
+        }
+        respond(exchange, status, response.toString());
+    }
+
+
+    /**
+     * Run a BlobStore operation and get the text of the response
+     */
+    private static String run(String operation, BlobStore blobStore, BlobStoreRetry retry,
+                              Map<String, String> params) throws IOException {
+        String containerName = params.get("container");
+        String blobName = params.get("blob");
+        String localFileName = params.get("file");
+        switch (operation) {
+            case "create": {
+                boolean created = retry.call("createContainer",
+                        () -> blobStore.createContainerInLocation(null, containerName));
+                return created ? "Created." : "BlobStore container already exists.";
+            }
+            case "upload": {
+                File file = new File(localFileName);
+                if (!file.isFile()) {
+                    throw new FileNotFoundException("Local file does not exist: " + localFileName);
+                }
+                Blob blob = blobStore.blobBuilder(blobName)
+                        .payload(file)
+                        .contentLength(file.length())
+                        .build();
+                String eTag = retry.call("putBlob", () -> blobStore.putBlob(containerName, blob));
+                return "Uploaded. ETag: " + eTag;
+            }
+            case "download": {
+                File file = new File(localFileName);
+                retry.call("getBlob", () -> {
+                    Blob blob = blobStore.getBlob(containerName, blobName);
+                    if (blob == null) {
+                        throw new FileNotFoundException("Container/Blob does not exist");
+                    }
+                    try (InputStream in = blob.getPayload().openStream()) {
+                        return Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                });
+                return "Downloaded. Local File: " + file.getAbsolutePath();
+            }
+            case "list": {
+                // List all the Blobs in the container, page by page, one Blob per line
+                StringBuilder blobs = new StringBuilder();
+                int count = 0;
+                ListContainerOptions options = ListContainerOptions.Builder.recursive();
+                String marker = null;
+                do {
+                    if (marker != null) {
+                        options.afterMarker(marker);
+                    }
+                    PageSet<? extends StorageMetadata> page = retry.call("list",
+                            () -> blobStore.list(containerName, options));
+                    for (StorageMetadata resourceMd : page) {
+                        blobs.append("\n - ").append(resourceMd.getName());
+                        count++;
+                    }
+                    marker = page.getNextMarker();
+                } while (marker != null);
+                return "Listed " + count + " blobs." + blobs;
+            }
+            case "delete": {
+                if (!retry.call("blobExists", () -> blobStore.blobExists(containerName, blobName))) {
+                    throw new FileNotFoundException("Container/Blob does not exist");
+                }
+                retry.call("removeBlob", () -> {
+                    blobStore.removeBlob(containerName, blobName);
+                    return null;
+                });
+                return "Deleted.";
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+
+    /**
+     * Send the status of the worker pool of every provider
+     */
+    private static void status(HttpExchange exchange) throws IOException {
+        StringBuilder response = new StringBuilder();
+        for (BlobStoreWorkerPool pool : pools.values()) {
+            response.append(pool.status()).append('\n');
+        }
+        respond(exchange, 200, response.toString());
+    }
+
+
+    /**
+     * Stop the daemon, the queued requests are finished before the contexts are closed
+     */
+    private static void shutdown(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "Stopping.\n");
+        stopped.countDown();
+    }
+
+
+    private static String missingParameter(String operation, Map<String, String> params) {
+        List<String> required = new ArrayList<>();
+        required.add("container");
+        if ("upload".equals(operation) || "download".equals(operation) || "delete".equals(operation)) {
+            required.add("blob");
+        }
+        if ("upload".equals(operation) || "download".equals(operation)) {
+            required.add("file");
+        }
+        for (String name : required) {
+            if (params.get(name) == null || params.get(name).isEmpty()) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+
+    private static String firstLine(String message) {
+        int end = message.indexOf('\n');
+        return end < 0 ? message : message.substring(0, end).trim();
+    }
+
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
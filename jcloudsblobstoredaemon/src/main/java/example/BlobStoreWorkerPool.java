@@ -0,0 +1,170 @@
+/**
+ * BlobStoreWorkerPool runs the requests of a provider.
+ * Every provider has its own context, kept open while the daemon runs, and its own threads and
+ * queue, so a slow provider does not delay the requests to the others. The context is built by
+ * the pool as soon as it is started and the requests received meanwhile wait in the queue.
+ * A request is rejected when the queue is full.
+ */
+
+package example;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+
+
+public class BlobStoreWorkerPool {
+
+    /**
+     * Request to the BlobStore of the provider, it returns the text of the response
+     */
+    public interface Request {
+        String run(BlobStore blobStore, BlobStoreRetry retry) throws IOException;
+    }
+
+    private final String provider;
+    private final String identity;
+    private final String credential;
+    private final BlobStoreRetry retry;
+    private final ThreadPoolExecutor executor;
+    private final Future<BlobStoreContext> context;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+
+    public BlobStoreWorkerPool(String provider, String identity, String credential, BlobStoreRetry retry,
+                               int workers, int queueSize) {
+        this.provider = provider;
+        this.identity = identity;
+        this.credential = credential;
+        this.retry = retry;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+                    Thread thread = new Thread(runnable, "blobstore-" + provider);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Build the context before any request
+        this.context = executor.submit(this::buildContext);
+    }
+
+
+    /**
+     * Get the provider of the pool
+     */
+    public String provider() {
+        return provider;
+    }
+
+
+    /**
+     * Queue a request, it fails with RejectedExecutionException if the queue is full
+     */
+    public Future<String> submit(Request request) {
+        try {
+            return executor.submit(() -> {
+                active.incrementAndGet();
+                long start = System.currentTimeMillis();
+                try {
+                    String response = request.run(context.get().getBlobStore(), retry);
+                    completed.incrementAndGet();
+                    return response;
+                } catch (ExecutionException e) {
+                    // The context could not be built
+                    failed.incrementAndGet();
+                    throw new IOException("Context not available: " + e.getCause().getMessage(), e.getCause());
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    totalMillis.addAndGet(System.currentTimeMillis() - start);
+                    active.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Get the status of the pool as a line of text
+     */
+    public String status() {
+        long done = completed.get() + failed.get();
+        return String.format("%s\tcontext %s\tqueued %d\tactive %d\tcompleted %d\tfailed %d\trejected %d"
+                        + "\taverage %d ms\tconcurrency %d",
+                provider, contextStatus(), executor.getQueue().size(), active.get(),
+                completed.get(), failed.get(), rejected.get(), done == 0 ? 0 : totalMillis.get() / done,
+                retry.currentConcurrency());
+    }
+
+
+    /**
+     * Wait for the queued requests and close the context
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        retry.printStatistics(provider);
+        BlobStoreConnections.printStatistics(provider);
+        retry.close();
+        try {
+            // Disconnect
+            context.get().close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The context was not built
+        }
+    }
+
+
+    private String contextStatus() {
+        if (!context.isDone()) {
+            return "building";
+        }
+        try {
+            context.get();
+            return "ready";
+        } catch (InterruptedException | ExecutionException e) {
+            return "failed";
+        }
+    }
+
+
+    private BlobStoreContext buildContext() {
+        long start = System.currentTimeMillis();
+        try {
+            // Init
+            BlobStoreContext blobStoreContext = BlobStoreConnections.newBuilder(provider)
+                    .credentials(identity, credential)
+                    .buildView(BlobStoreContext.class);
+            System.out.printf("Context on \"%s\" ready in %d ms.\n", provider, System.currentTimeMillis() - start);
+            return blobStoreContext;
+        } catch (RuntimeException e) {
+            String message = String.valueOf(e.getMessage());
+            System.out.printf("Error: Context on \"%s\" not available: %s\n",
+                    provider, message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message);
+            throw e;
+        }
+    }
+}
@@ -15,7 +15,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 
@@ -27,9 +26,15 @@ public class BlobStoreDeleteBlob {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the retries and connections
 
     public static void main(String[] args) throws IOException {
 
+        if (BlobStoreStartup.isTraining()) {
+            BlobStoreStartup.train();
+            return;
+        }
+
         if (args.length < 2) {
             System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoredeleteblob.jar <CONTAINER_NAME> <BLOB_NAME>");
             System.exit(1);
@@ -47,6 +52,9 @@ public class BlobStoreDeleteBlob {
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
+        // Build the contexts of all the providers in the background
+        prepareContexts();
+
         // ******************** AWS S3 provider ********************
 
         System.out.println("AWS S3 bucket:");
@@ -93,34 +101,81 @@ public class BlobStoreDeleteBlob {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Retries and connections
+        configuration = prop;
     }
 
 
     /**
-     * Delete a Blob in a BlobStore container
+     * Start building the contexts of all the providers in parallel
      */
-    private static void deleteBlobBlobStore(String provider, String identity, String credential,
-                                        String containerName, String blobName) {
+    private static void prepareContexts() {
+        BlobStoreConnections.configure(configuration, false);
+        BlobStoreStartup.configure(configuration);
+        BlobStoreStartup.prepareContext("aws-s3", awsAccessKeyId, awsSecretKey);
+        BlobStoreStartup.prepareContext("azureblob", azureAccountName, azureAccountKey);
+        BlobStoreStartup.prepareContext("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey);
+    }
+
+
+    /**
+     * Delete a Blob in a BlobStore container of a provider with a configuration, for other
+     * applications (Ex.: the load test) running the example without its command line.
+     * The messages are printed as with the command line, returns false if the Blob was not deleted
+     */
+    public static boolean deleteBlob(Properties prop, String provider, String identity, String credential,
+                                     String containerName, String blobName) {
+        synchronized (BlobStoreDeleteBlob.class) {
+            if (configuration != prop) {
+                configuration = prop;
+                BlobStoreConnections.configure(configuration, false);
+                BlobStoreStartup.configure(configuration);
+            }
+        }
+        return deleteBlobBlobStore(provider, identity, credential, containerName, blobName);
+    }
+
+
+    /**
+     * Delete a Blob in a BlobStore container, returns false if it was not deleted
+     */
+    private static boolean deleteBlobBlobStore(String provider, String identity, String credential,
+                                               String containerName, String blobName) {
         // Init
-        BlobStoreContext context = ContextBuilder.newBuilder(provider)
-                .credentials(identity, credential)
-                .buildView(BlobStoreContext.class);
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
 
         System.out.printf("Deleting the Blob in the BlobStore container on \"%s\" ...\n", provider);
 
         // Instantiate a BlobStore
         BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
 
-        if (blobStore.blobExists(containerName, blobName)) {
-            // Delete a Blob in a BlobStore container
-            blobStore.removeBlob(containerName, blobName);
-            System.out.println("Deleted.");
-        } else {
-            System.out.println("Error: Container/Blob does not exists!!");
+        try {
+            boolean exists = retry.call("blobExists", () -> blobStore.blobExists(containerName, blobName));
+            BlobStoreStartup.firstRequest(provider);
+            if (exists) {
+                // Delete a Blob in a BlobStore container
+                retry.call("removeBlob", () -> {
+                    blobStore.removeBlob(containerName, blobName);
+                    return null;
+                });
+                System.out.println("Deleted.");
+                return true;
+            } else {
+                System.out.println("Error: Container/Blob does not exists!!");
+            }
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
         }
-
-        // Disconnect
-        context.close();
+        return false;
     }
 }
-
@@ -0,0 +1,148 @@
+/**
+ * BlobStoreStartup reduces and measures the startup time of the examples.
+ *  - The contexts of all the providers are built in parallel in the background as soon as the
+ *    configuration is loaded, so the provider metadata scanning and the Guice wiring of the next
+ *    providers overlap with the requests to the first one.
+ *  - Timing: the time from the JVM start until every context is built and until the first request
+ *    to every provider is done is printed when the property startup_timing (or -Dstartup.timing) is true.
+ *  - Serial: with startup_parallel=false (or -Dstartup.parallel=false) every context is built when it
+ *    is used, as without this class, to compare the startup time.
+ *  - Training: with -Dstartup.training=true the application only builds the contexts of the
+ *    providers, without credentials nor requests, and exits. It is used by the build to record
+ *    the classes loaded at startup for the class data sharing (AppCDS) archive.
+ */
+
+package example;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.jclouds.blobstore.BlobStoreContext;
+
+
+public class BlobStoreStartup {
+
+    private static final String[] PROVIDERS = { "aws-s3", "azureblob", "google-cloud-storage" };
+    private static final String TRAINING_IDENTITY = "training";         // Credentials of the training contexts
+    private static final String TRAINING_CREDENTIAL = "training";
+
+    private static final Map<String, FutureTask<BlobStoreContext>> contexts = new ConcurrentHashMap<>();
+    private static final Set<String> firstRequests = ConcurrentHashMap.newKeySet();
+    private static boolean timing = Boolean.getBoolean("startup.timing");
+    private static boolean parallel = Boolean.parseBoolean(System.getProperty("startup.parallel", "true"));
+
+
+    /**
+     * Get the startup configuration from the configuration properties
+     */
+    public static void configure(Properties prop) {
+        timing = Boolean.parseBoolean(System.getProperty("startup.timing",
+                prop.getProperty("startup_timing", "false")).trim());
+        parallel = Boolean.parseBoolean(System.getProperty("startup.parallel",
+                prop.getProperty("startup_parallel", "true")).trim());
+    }
+
+
+    /**
+     * Check if the application is run to record the classes loaded at startup
+     */
+    public static boolean isTraining() {
+        return Boolean.getBoolean("startup.training");
+    }
+
+
+    /**
+     * Build and close the contexts of all the providers, loading the classes used at startup.
+     * The JVM exits with an error if a context can not be built, so the build does not write
+     * an archive from an incomplete list of classes
+     */
+    public static void train() {
+        try {
+            for (String provider : PROVIDERS) {
+                prepareContext(provider, TRAINING_IDENTITY, TRAINING_CREDENTIAL);
+            }
+            for (String provider : PROVIDERS) {
+                BlobStoreContext context = context(provider, TRAINING_IDENTITY, TRAINING_CREDENTIAL);
+                context.getBlobStore().blobBuilder("training").payload(new byte[0]).build();
+                context.close();
+            }
+        } catch (RuntimeException | LinkageError e) {
+            System.out.println("Error: Training failed: " + e);
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Start building the context of a provider in the background
+     */
+    public static void prepareContext(String provider, String identity, String credential) {
+        if (!parallel) {
+            return;
+        }
+        FutureTask<BlobStoreContext> task = new FutureTask<>(() -> buildContext(provider, identity, credential));
+        if (contexts.putIfAbsent(provider, task) == null) {
+            Thread thread = new Thread(task, "blobstore-context-" + provider);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+
+    /**
+     * Get the context of a provider, waiting for it if it is being built in the background
+     */
+    public static BlobStoreContext context(String provider, String identity, String credential) {
+        FutureTask<BlobStoreContext> task = contexts.remove(provider);
+        BlobStoreContext context;
+        if (task == null) {
+            context = buildContext(provider, identity, credential);
+        } else {
+            try {
+                context = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the context of " + provider, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        if (timing) {
+            System.out.printf("Startup on \"%s\": context ready %d ms after the JVM start\n",
+                    provider, ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        return context;
+    }
+
+
+    /**
+     * Record that a request to a provider is done, the time of the first one is printed
+     */
+    public static void firstRequest(String provider) {
+        if (timing && firstRequests.add(provider)) {
+            System.out.printf("Startup on \"%s\": first request done %d ms after the JVM start\n",
+                    provider, ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+
+    private static BlobStoreContext buildContext(String provider, String identity, String credential) {
+        long start = System.nanoTime();
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+        if (timing) {
+            System.out.printf("Startup on \"%s\": context built in %d ms\n",
+                    provider, (System.nanoTime() - start) / 1000000);
+        }
+        return context;
+    }
+}
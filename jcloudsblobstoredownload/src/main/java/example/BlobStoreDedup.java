@@ -0,0 +1,180 @@
+/**
+ * BlobStoreDedup handles the deduplicated Blobs.
+ * A file is split in chunks with content-defined chunking: a rolling hash (Gear hash) of the
+ * content decides where a chunk ends, so an insertion or deletion only changes the chunks around it.
+ * Every chunk is stored once in the container, named by the SHA-256 of its content, and a
+ * manifest Blob lists the chunks of the file.
+ * Blob names:
+ *  - <BLOB_NAME>.manifest = Manifest Blob
+ *  - .chunks/<SHA-256>    = Chunk Blobs, shared by all the files in the container
+ * Manifest layout (text):
+ *  - Header: "JCD1 <FILE_SIZE>"
+ *  - Chunks, in file order: "<SHA-256> <LENGTH>"
+ */
+
+package example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class BlobStoreDedup {
+
+    public static final String CHUNK_PREFIX = ".chunks/";      // Prefix of the chunk Blobs
+
+    private static final int MIN_CHUNK_SIZE = 256*1024;         // Minimum chunk size
+    private static final int MAX_CHUNK_SIZE = 4*1024*1024;      // Maximum chunk size
+    private static final long BOUNDARY_MASK = ((1L << 20) - 1) << 44;   // Average chunk size of 1 MB over the minimum
+    private static final String MAGIC = "JCD1";                 // Manifest format identifier
+    private static final int BUFFER_SIZE = 1024*64;             // Buffer size for reading the file
+
+    // Random values for every byte, with a fixed seed so the chunks are the same in every run
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x4A434431L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+
+    /**
+     * Chunk of a file
+     */
+    public static class Chunk {
+        public final String hash;
+        public final long offset;
+        public final int length;
+
+        public Chunk(String hash, long offset, int length) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * Get the name of the manifest Blob
+     */
+    public static String manifestName(String blobName) {
+        return blobName + ".manifest";
+    }
+
+
+    /**
+     * Get the name of a chunk Blob
+     */
+    public static String chunkBlobName(String hash) {
+        return CHUNK_PREFIX + hash;
+    }
+
+
+    /**
+     * Split a content in chunks, reading it only once
+     */
+    public static List<Chunk> split(InputStream in) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = 0;
+        int length = 0;
+        long hash = 0;
+        int readLen;
+        while ((readLen = in.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < readLen; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                length++;
+                if ((length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || length >= MAX_CHUNK_SIZE) {
+                    // End of a chunk
+                    digest.update(buffer, start, i + 1 - start);
+                    chunks.add(new Chunk(hex(digest.digest()), offset, length));
+                    offset += length;
+                    length = 0;
+                    hash = 0;
+                    start = i + 1;
+                }
+            }
+            digest.update(buffer, start, readLen - start);
+        }
+        if (length > 0) {
+            chunks.add(new Chunk(hex(digest.digest()), offset, length));
+        }
+        return chunks;
+    }
+
+
+    /**
+     * Get the SHA-256 of a chunk content
+     */
+    public static String hash(byte[] content, int length) {
+        MessageDigest digest = sha256();
+        digest.update(content, 0, length);
+        return hex(digest.digest());
+    }
+
+
+    /**
+     * Write a manifest
+     */
+    public static byte[] writeManifest(long fileSize, List<Chunk> chunks) {
+        StringBuilder manifest = new StringBuilder(MAGIC).append(' ').append(fileSize).append('\n');
+        for (Chunk chunk : chunks) {
+            manifest.append(chunk.hash).append(' ').append(chunk.length).append('\n');
+        }
+        return manifest.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Read a manifest, the offsets of the chunks are computed from their lengths
+     */
+    public static List<Chunk> readManifest(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null || !header.startsWith(MAGIC + " ")) {
+            throw new IOException("Blob is not a dedup manifest");
+        }
+        long fileSize = Long.parseLong(header.substring(MAGIC.length() + 1));
+        List<Chunk> chunks = new ArrayList<>();
+        long offset = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            String[] fields = line.split(" ");
+            Chunk chunk = new Chunk(fields[0], offset, Integer.parseInt(fields[1]));
+            chunks.add(chunk);
+            offset += chunk.length;
+        }
+        if (offset != fileSize) {
+            throw new IOException("Dedup manifest is not complete");
+        }
+        return chunks;
+    }
+
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
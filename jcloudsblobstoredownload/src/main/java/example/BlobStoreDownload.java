@@ -8,20 +8,55 @@
  * CONTAINER_NAME  = Container name
  * BLOB_NAME       = Blob name in the container
  * LOCAL_FILE_NAME = Local file name
+ * Pack mode, download a file from a pack uploaded by BlobStoreUpload, you must provide 5 parameters:
+ * pack
+ * CONTAINER_NAME  = Container name
+ * PACK_NAME       = Name of the pack in the container
+ * ENTRY_NAME      = Name of the file in the pack
+ * LOCAL_FILE_NAME = Local file name
+ * Dedup mode, download a file uploaded as deduplicated chunks by BlobStoreUpload, you must provide 4 parameters:
+ * dedup
+ * CONTAINER_NAME  = Container name
+ * BLOB_NAME       = Blob name in the container
+ * LOCAL_FILE_NAME = Local file name
+ * Stream mode, write a blob to the standard output or a named pipe, you must provide 4 parameters (OUTPUT is optional):
+ * stream
+ * PROVIDER        = Provider of the container (aws-s3, azureblob or google-cloud-storage)
+ * CONTAINER_NAME  = Container name
+ * BLOB_NAME       = Blob name in the container
+ * OUTPUT          = File or named pipe, - or no value for the standard output
  */
 
 package example;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.io.MutableContentMetadata;
+
+import com.google.common.io.ByteStreams;
 
 
 public class BlobStoreDownload {
@@ -34,9 +69,33 @@ public class BlobStoreDownload {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static BlobStoreEncryption encryption;  // Client-side encryption (null if disabled)
+    private static Properties configuration;        // Configuration for the retries and rate limits
+
+    private static final int DEDUP_CONCURRENCY = 8;     // Chunks downloaded at the same time
 
     public static void main(String[] args) throws IOException {
 
+        if (BlobStoreStartup.isTraining()) {
+            BlobStoreStartup.train();
+            return;
+        }
+
+        if (args.length > 0 && "pack".equals(args[0])) {
+            pack(args);
+            return;
+        }
+
+        if (args.length > 0 && "dedup".equals(args[0])) {
+            dedup(args);
+            return;
+        }
+
+        if (args.length > 0 && "stream".equals(args[0])) {
+            stream(args);
+            return;
+        }
+
         if (args.length < 3) {
             System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoredownload.jar <CONTAINER_NAME> <BLOB_NAME> <LOCAL_FILE_NAME>");
             System.exit(1);
@@ -56,6 +115,9 @@ public class BlobStoreDownload {
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
+        // Build the contexts of all the providers in the background
+        prepareContexts(false);
+
         // ******************** AWS S3 provider ********************
 
         System.out.println("AWS S3 bucket:");
@@ -102,46 +164,589 @@ public class BlobStoreDownload {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Client-side encryption
+        encryption = BlobStoreEncryption.fromProperties(prop);
+        // Retries and rate limits
+        configuration = prop;
+    }
+
+
+    /**
+     * Start building the contexts of all the providers in parallel, with the connection settings
+     * of the parallel modes if needed
+     */
+    private static void prepareContexts(boolean parallel) {
+        BlobStoreConnections.configure(configuration, parallel);
+        BlobStoreStartup.configure(configuration);
+        BlobStoreStartup.prepareContext("aws-s3", awsAccessKeyId, awsSecretKey);
+        BlobStoreStartup.prepareContext("azureblob", azureAccountName, azureAccountKey);
+        BlobStoreStartup.prepareContext("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey);
+    }
+
+
+    /**
+     * Download a blob from a BlobStore container of a provider to a local file with a configuration, for
+     * other applications (Ex.: the load test) running the example without its command line.
+     * The messages are printed as with the command line, returns false if the download failed
+     */
+    public static boolean download(Properties prop, String provider, String identity, String credential,
+                                   String containerName, String blobName, String localFileName) {
+        synchronized (BlobStoreDownload.class) {
+            if (configuration != prop) {
+                encryption = BlobStoreEncryption.fromProperties(prop);
+                configuration = prop;
+                BlobStoreConnections.configure(configuration, false);
+                BlobStoreStartup.configure(configuration);
+            }
+        }
+        return downloadBlobStore(provider, identity, credential, containerName, blobName, localFileName);
     }
 
 
     /**
-     * Download a blob from a BlobStore container to a local file
+     * Download a blob from a BlobStore container to a local file, returns false if it failed
      */
-    private static void downloadBlobStore(String provider, String identity, String credential,
-                                        String containerName, String blobName, String localFileName) {
+    private static boolean downloadBlobStore(String provider, String identity, String credential,
+                                             String containerName, String blobName, String localFileName) {
         // Init
-        BlobStoreContext context = ContextBuilder.newBuilder(provider)
-                .credentials(identity, credential)
-                .buildView(BlobStoreContext.class);
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
 
         System.out.printf("Downloading a blob from a BlobStore container to a local file from \"%s\" ...\n", provider);
 
         // Instantiate a BlobStore
         BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
 
         try {
-            // Get a Blob
-            Blob blob = blobStore.getBlob(containerName, blobName);
+            // Get a Blob, the request is hedged for small Blobs, without hedging the Blob is streamed to the file
+            long maxBufferedSize = retry.hedgeEnabled() ? retry.hedgeMaxSize() : 0;
+            Blob blob = retry.callHedged("getBlob",
+                    () -> getBlob(blobStore, rateLimiter, containerName, blobName, maxBufferedSize),
+                    BlobStoreDownload::closeBlob);
+            BlobStoreStartup.firstRequest(provider);
             if( blob == null ) {
                 System.out.println("Error: Container/Blob does not exist!!");
             } else {
-                // Download the Blob
-                InputStream inputStream = blob.getPayload().openStream();
-                FileOutputStream fileOutputStream = new FileOutputStream(new File(localFileName));
+                try {
+                    // Download the Blob
+                    saveBlob(blob, rateLimiter, localFileName);
+                } catch (IOException e) {
+                    // Only a transport failure is retried, a content that can not be decrypted is not
+                    if (!BlobStoreRetry.isRetryable(e)) {
+                        throw e;
+                    }
+                    // The download was interrupted, get the Blob again
+                    System.out.println("Download interrupted: " + e.getMessage());
+                    retry.call("getBlob", () -> {
+                        Blob retryBlob = getBlob(blobStore, rateLimiter, containerName, blobName, 0);
+                        if (retryBlob == null) {
+                            throw new FileNotFoundException("Container/Blob does not exist!!");
+                        }
+                        saveBlob(retryBlob, rateLimiter, localFileName);
+                        return retryBlob;
+                    });
+                }
+                System.out.println("Downloaded.");
+                System.out.println("Local File: " + localFileName);
+                return true;
+            }
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+        return false;
+    }
+
+
+    /**
+     * Get a Blob from a BlobStore container, small Blobs are read into memory
+     */
+    private static Blob getBlob(BlobStore blobStore, BlobStoreRateLimiter rateLimiter,
+                                String containerName, String blobName, long maxBufferedSize) throws IOException {
+        rateLimiter.acquireRequest();
+        Blob blob = blobStore.getBlob(containerName, blobName);
+        if (blob == null) {
+            return null;
+        }
+        Long contentLength = blob.getMetadata().getContentMetadata().getContentLength();
+        if (contentLength != null && contentLength <= maxBufferedSize) {
+            // Read the whole Blob, so a failed or slow transfer can be retried or hedged
+            byte[] content;
+            try (InputStream inputStream = rateLimiter.limit(blob.getPayload().openStream())) {
+                content = ByteStreams.toByteArray(inputStream);
+            }
+            MutableContentMetadata contentMetadata = blob.getMetadata().getContentMetadata();
+            blob.setPayload(content);
+            blob.getPayload().setContentMetadata(contentMetadata);
+        }
+        return blob;
+    }
+
+
+    /**
+     * Write the content of a Blob to a local file
+     */
+    private static void saveBlob(Blob blob, BlobStoreRateLimiter rateLimiter, String localFileName)
+            throws IOException {
+        InputStream inputStream = blob.getPayload().openStream();
+        if (!blob.getPayload().isRepeatable()) {
+            // Limit the bandwidth used while the Blob is downloaded, small Blobs are already in memory
+            inputStream = rateLimiter.limit(inputStream);
+        }
+        if (encryption != null) {
+            // Decrypt the Blob while it is downloaded
+            inputStream = encryption.decrypt(inputStream);
+        }
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(localFileName))) {
+            byte[] readBuffer = new byte[MAX_BUFFER_SIZE];
+            int readLen = 0;
+            while ((readLen = inputStream.read(readBuffer)) > 0) {
+                fileOutputStream.write(readBuffer, 0, readLen);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * Release the connection of a Blob that is not used
+     */
+    private static void closeBlob(Blob blob) {
+        if (blob != null) {
+            blob.getPayload().release();
+        }
+    }
+
+
+    /**
+     * Download a file from a pack in BlobStore containers to a local file
+     */
+    private static void pack(String[] args) {
+
+        if (args.length < 5) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoredownload.jar pack <CONTAINER_NAME> <PACK_NAME> <ENTRY_NAME> <LOCAL_FILE_NAME>");
+            System.exit(1);
+        }
+
+        // The name for the container
+        String containerName = args[1];
+        // The name for the pack
+        String packName = args[2];
+        // The name for the file in the pack
+        String entryName = args[3];
+        // The name for the local file
+        String localFileName = args[4];
+
+        System.out.println("Container name:  " + containerName);
+        System.out.println("Pack name:       " + packName);
+        System.out.println("Entry name:      " + entryName);
+        System.out.println("Local file name: " + localFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // Build the contexts of all the providers in the background
+        prepareContexts(true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        packBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, packName, entryName, localFileName + ".aws");
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        packBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, packName, entryName, localFileName + ".azure");
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        packBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, packName, entryName, localFileName + ".gcloud");
+    }
+
+
+    /**
+     * Download a file from a pack in a BlobStore container, reading the index and the range
+     * of the file in its pack Blob
+     */
+    private static void packBlobStore(String provider, String identity, String credential,
+                                      String containerName, String packName, String entryName,
+                                      String localFileName) {
+        // Init
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
+
+        System.out.printf("Downloading a file from a pack in a BlobStore container to a local file from \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
+
+        try {
+            // Read the index of the pack
+            Map<String, BlobStorePack.Entry> index = retry.call("getBlob", () -> {
+                Blob indexBlob = getBlob(blobStore, rateLimiter, containerName,
+                        BlobStorePack.indexName(packName), Long.MAX_VALUE);
+                if (indexBlob == null) {
+                    return null;
+                }
+                try (InputStream inputStream = indexBlob.getPayload().openStream()) {
+                    return BlobStorePack.readIndex(inputStream);
+                }
+            });
+            BlobStoreStartup.firstRequest(provider);
+            BlobStorePack.Entry entry = index == null ? null : index.get(entryName);
+            if (entry == null) {
+                System.out.println("Error: Container/Pack/Entry does not exist!!");
+            } else if (entry.length == 0) {
+                // An empty file has no range in the pack Blob
+                new FileOutputStream(new File(localFileName)).close();
+                System.out.println("Downloaded.");
+                System.out.println("Local File: " + localFileName);
+            } else {
+                // Download the range of the file in its pack Blob
+                retry.call("getBlob", () -> {
+                    rateLimiter.acquireRequest();
+                    Blob packBlob = blobStore.getBlob(containerName,
+                            BlobStorePack.packBlobName(packName, entry.pack),
+                            GetOptions.Builder.range(entry.offset, entry.offset + entry.length - 1));
+                    if (packBlob == null) {
+                        throw new FileNotFoundException("Pack blob does not exist!!");
+                    }
+                    saveBlob(packBlob, rateLimiter, localFileName);
+                    return packBlob;
+                });
+                System.out.println("Downloaded.");
+                System.out.println("Local File: " + localFileName);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+    }
+
+
+    /**
+     * Download a file uploaded as deduplicated chunks in BlobStore containers to a local file
+     */
+    private static void dedup(String[] args) {
+
+        if (args.length < 4) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoredownload.jar dedup <CONTAINER_NAME> <BLOB_NAME> <LOCAL_FILE_NAME>");
+            System.exit(1);
+        }
+
+        // The name for the container
+        String containerName = args[1];
+        // The name for the blob
+        String blobName = args[2];
+        // The name for the local file
+        String localFileName = args[3];
+
+        System.out.println("Container name:  " + containerName);
+        System.out.println("Blob name:       " + blobName);
+        System.out.println("Local file name: " + localFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // Build the contexts of all the providers in the background
+        prepareContexts(true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        dedupBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, blobName, localFileName + ".aws");
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        dedupBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, blobName, localFileName + ".azure");
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        dedupBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, blobName, localFileName + ".gcloud");
+    }
+
+
+    /**
+     * Download a file from its manifest in a BlobStore container, fetching the chunks in parallel
+     * and writing every chunk at its position in the local file
+     */
+    private static void dedupBlobStore(String provider, String identity, String credential,
+                                       String containerName, String blobName, String localFileName) {
+        // Init
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
+
+        System.out.printf("Downloading a deduplicated blob from a BlobStore container to a local file from \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
+        ExecutorService executor = Executors.newFixedThreadPool(DEDUP_CONCURRENCY);
+
+        try {
+            // Read the manifest
+            List<BlobStoreDedup.Chunk> chunks = retry.call("getBlob", () -> {
+                Blob manifestBlob = getBlob(blobStore, rateLimiter, containerName,
+                        BlobStoreDedup.manifestName(blobName), Long.MAX_VALUE);
+                if (manifestBlob == null) {
+                    return null;
+                }
+                try (InputStream inputStream = manifestBlob.getPayload().openStream()) {
+                    return BlobStoreDedup.readManifest(inputStream);
+                }
+            });
+            BlobStoreStartup.firstRequest(provider);
+            if (chunks == null) {
+                System.out.println("Error: Container/Blob does not exist!!");
+                return;
+            }
+
+            // Group the positions of every different chunk, so it is downloaded once
+            Map<String, List<Long>> offsets = new LinkedHashMap<>();
+            long fileSize = 0;
+            for (BlobStoreDedup.Chunk chunk : chunks) {
+                offsets.computeIfAbsent(chunk.hash, hash -> new ArrayList<>()).add(chunk.offset);
+                fileSize += chunk.length;
+            }
+
+            try (RandomAccessFile localFile = new RandomAccessFile(localFileName, "rw")) {
+                localFile.setLength(fileSize);
+                FileChannel channel = localFile.getChannel();
+
+                // Download the chunks in parallel
+                List<Future<?>> downloads = new ArrayList<>();
+                for (Map.Entry<String, List<Long>> chunk : offsets.entrySet()) {
+                    downloads.add(executor.submit(() -> {
+                        byte[] content = retry.call("getBlob",
+                                () -> getChunk(blobStore, rateLimiter, containerName, chunk.getKey()));
+                        for (long offset : chunk.getValue()) {
+                            ByteBuffer buffer = ByteBuffer.wrap(content);
+                            while (buffer.hasRemaining()) {
+                                channel.write(buffer, offset + buffer.position());
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> download : downloads) {
+                    download.get();
+                }
+            }
+
+            System.out.printf("Downloaded %d chunks.\n", offsets.size());
+            System.out.println("Local File: " + localFileName);
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Download interrupted!!");
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+    }
+
+
+    /**
+     * Get the content of a chunk Blob, checking its SHA-256
+     */
+    private static byte[] getChunk(BlobStore blobStore, BlobStoreRateLimiter rateLimiter,
+                                   String containerName, String hash) throws IOException {
+        rateLimiter.acquireRequest();
+        Blob blob = blobStore.getBlob(containerName, BlobStoreDedup.chunkBlobName(hash));
+        if (blob == null) {
+            throw new FileNotFoundException("Chunk " + hash + " does not exist!!");
+        }
+        InputStream inputStream = rateLimiter.limit(blob.getPayload().openStream());
+        if (encryption != null) {
+            inputStream = encryption.decrypt(inputStream);
+        }
+        byte[] content;
+        try {
+            content = ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        if (!hash.equals(BlobStoreDedup.hash(content, content.length))) {
+            throw new IOException("Chunk " + hash + " is corrupted");
+        }
+        return content;
+    }
+
+
+    /**
+     * Write a blob from a BlobStore container to the standard output or a named pipe
+     */
+    private static void stream(String[] args) {
+
+        if (args.length < 4) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoredownload.jar stream <PROVIDER> <CONTAINER_NAME> <BLOB_NAME> [<OUTPUT>]");
+            System.exit(1);
+        }
+
+        // The provider of the container
+        String provider = args[1];
+        // The name for the container
+        String containerName = args[2];
+        // The name for the blob
+        String blobName = args[3];
+        // The output, the standard output by default
+        String output = args.length > 4 ? args[4] : "-";
+
+        if ("-".equals(output)) {
+            // The standard output is used by the blob, the messages are written to the standard error
+            System.setOut(System.err);
+        }
+
+        System.out.println("Provider:        " + provider);
+        System.out.println("Container name:  " + containerName);
+        System.out.println("Blob name:       " + blobName);
+        System.out.println("Output:          " + ("-".equals(output) ? "standard output" : output));
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // The chunks are downloaded in parallel
+        BlobStoreConnections.configure(configuration, true);
+        BlobStoreStartup.configure(configuration);
+
+        switch (provider) {
+            case "aws-s3":
+                streamBlobStore(provider, awsAccessKeyId, awsSecretKey, containerName, blobName, output);
+                break;
+            case "azureblob":
+                streamBlobStore(provider, azureAccountName, azureAccountKey, containerName, blobName, output);
+                break;
+            case "google-cloud-storage":
+                streamBlobStore(provider, gcloudClientEmail, gcloudPrivateKey, containerName, blobName, output);
+                break;
+            default:
+                System.out.println("Error: Unknown provider " + provider + " (aws-s3, azureblob or google-cloud-storage)");
+                System.exit(1);
+        }
+    }
+
+
+    /**
+     * Write a blob to the standard output or a named pipe, reading its next ranges in the background
+     */
+    private static void streamBlobStore(String provider, String identity, String credential,
+                                        String containerName, String blobName, String output) {
+        // Init
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
+
+        System.out.printf("Streaming a blob from a BlobStore container from \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
+        BlobStoreReadAhead readAhead = null;
+
+        long start = System.nanoTime();
+        long firstByteNanos = -1;
+        long written = 0;
+        try {
+            // The length of the Blob gives the ranges of the chunks
+            BlobMetadata metadata = retry.call("blobMetadata", () -> {
+                rateLimiter.acquireRequest();
+                return blobStore.blobMetadata(containerName, blobName);
+            });
+            BlobStoreStartup.firstRequest(provider);
+            if (metadata == null) {
+                System.out.println("Error: Container/Blob does not exist!!");
+                return;
+            }
+            Long contentLength = metadata.getContentMetadata().getContentLength();
+            if (contentLength == null) {
+                System.out.println("Error: Blob size is unknown, it can not be read by ranges");
+                return;
+            }
+
+            readAhead = BlobStoreReadAhead.fromProperties(blobStore, retry, rateLimiter,
+                    containerName, blobName, contentLength, metadata.getETag(), encryption, configuration);
+            // An encrypted Blob is decrypted by range in the read-ahead threads
+            InputStream inputStream = readAhead;
+
+            // A named pipe is opened when the consumer opens it
+            try (OutputStream outputStream = "-".equals(output)
+                    ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(output)) {
                 byte[] readBuffer = new byte[MAX_BUFFER_SIZE];
-                int readLen = 0;
+                int readLen;
                 while ((readLen = inputStream.read(readBuffer)) > 0) {
-                    fileOutputStream.write(readBuffer, 0, readLen);
+                    if (firstByteNanos < 0) {
+                        firstByteNanos = System.nanoTime() - start;
+                    }
+                    outputStream.write(readBuffer, 0, readLen);
+                    written += readLen;
                 }
-                fileOutputStream.close();
+            } finally {
                 inputStream.close();
             }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Streamed %.1f MB in %.1f s (%.1f MB/s), first byte after %d ms, %d chunks.\n",
+                    written / 1e6, seconds, seconds > 0 ? written / 1e6 / seconds : 0,
+                    Math.max(0, firstByteNanos) / 1000000, readAhead.chunkCount());
         } catch (IOException e) {
-            System.out.println("Error: IO Exception!!");
+            // A closed pipe also stops the download
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
         } finally {
-            System.out.println("Downloaded.");
-            System.out.println("Local File: " + localFileName);
+            if (readAhead != null) {
+                readAhead.close();
+            }
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
 
             // Disconnect
             context.close();
@@ -0,0 +1,337 @@
+/**
+ * BlobStoreEncryption handles the client-side encryption of Blobs.
+ * The Blob content is encrypted with AES-GCM in independent chunks, so every chunk can be
+ * decrypted on its own and a Blob can be downloaded by ranges or in parallel.
+ * Encrypted Blob layout:
+ *  - Header: magic "JCE1" (4 bytes), chunk size (4 bytes), nonce prefix (8 bytes)
+ *  - Chunks: AES-GCM ciphertext of every plain chunk followed by its 16 bytes authentication tag
+ * The nonce of every chunk is the nonce prefix followed by the chunk index, and the chunk index
+ * and a last chunk flag are authenticated, so chunks can not be reordered or truncated.
+ */
+
+package example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Properties;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreEncryption {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64*1024;  // Default plain chunk size
+
+    private static final byte[] MAGIC = {'J', 'C', 'E', '1'};   // Encrypted Blob format identifier
+    private static final int NONCE_PREFIX_SIZE = 8;             // Random part of the nonce
+    private static final int HEADER_SIZE = MAGIC.length + 4 + NONCE_PREFIX_SIZE;
+    private static final int TAG_SIZE = 16;                     // AES-GCM authentication tag size
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final SecretKey key;
+    private final int chunkSize;
+
+
+    /**
+     * Content that is not encrypted with this key and format, it is not fixed by retrying the request
+     */
+    public static class EncryptionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public EncryptionException(String message) {
+            super(message);
+        }
+
+        public EncryptionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+
+    public BlobStoreEncryption(byte[] keyBytes, int chunkSize) {
+        if (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) {
+            throw new IllegalArgumentException("Encryption key must be 128, 192 or 256 bits");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Encryption chunk size must be positive");
+        }
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        this.chunkSize = chunkSize;
+    }
+
+
+    /**
+     * Get the encryption from the configuration properties:
+     *  - encryption_key        = Base64 AES key (128, 192 or 256 bits)
+     *  - encryption_chunk_size = Plain chunk size in bytes (optional)
+     * Returns null when no key is configured and the Blobs are not encrypted.
+     */
+    public static BlobStoreEncryption fromProperties(Properties prop) {
+        String encodedKey = prop.getProperty("encryption_key");
+        if (encodedKey == null || encodedKey.trim().isEmpty()) {
+            return null;
+        }
+        String chunkSize = prop.getProperty("encryption_chunk_size");
+        return new BlobStoreEncryption(Base64.getDecoder().decode(encodedKey.trim()),
+                chunkSize == null ? DEFAULT_CHUNK_SIZE : Integer.parseInt(chunkSize.trim()));
+    }
+
+
+    /**
+     * Get the number of chunks for a plain size, an empty content has one empty chunk
+     */
+    public long chunkCount(long plainSize) {
+        return plainSize == 0 ? 1 : (plainSize + chunkSize - 1) / chunkSize;
+    }
+
+
+    /**
+     * Get the size of the encrypted content for a plain size
+     */
+    public long encryptedSize(long plainSize) {
+        return HEADER_SIZE + plainSize + chunkCount(plainSize) * TAG_SIZE;
+    }
+
+
+    /**
+     * Get the size of the plain content for an encrypted size
+     */
+    public long plainSize(long encryptedSize) {
+        long bodySize = encryptedSize - HEADER_SIZE;
+        long chunks = (bodySize + chunkSize + TAG_SIZE - 1) / (chunkSize + TAG_SIZE);
+        return bodySize - chunks * TAG_SIZE;
+    }
+
+
+    /**
+     * Get the offset of a chunk in the encrypted content, used for ranged downloads
+     */
+    public long chunkOffset(long chunkIndex) {
+        return HEADER_SIZE + chunkIndex * (chunkSize + TAG_SIZE);
+    }
+
+
+    /**
+     * Get the plain chunk size
+     */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+
+    /**
+     * Encrypt a plain content, the encryption is done while the content is streamed
+     */
+    public ByteSource encrypt(final ByteSource plain) throws IOException {
+        final long plainSize = plain.size();
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return new EncryptingInputStream(plain.openStream(), chunkCount(plainSize));
+            }
+
+            @Override
+            public long size() {
+                return encryptedSize(plainSize);
+            }
+        };
+    }
+
+
+    /**
+     * Decrypt an encrypted content, the decryption is done while the content is streamed
+     */
+    public InputStream decrypt(InputStream encrypted) throws IOException {
+        return new DecryptingInputStream(encrypted, readHeader(encrypted));
+    }
+
+
+    /**
+     * Read the header of an encrypted content and get the nonce prefix
+     */
+    public byte[] readHeader(InputStream encrypted) throws IOException {
+        DataInputStream in = new DataInputStream(encrypted);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new EncryptionException("Blob is not encrypted or has an unknown format");
+        }
+        if (in.readInt() != chunkSize) {
+            throw new EncryptionException("Blob was encrypted with a different chunk size");
+        }
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        in.readFully(noncePrefix);
+        return noncePrefix;
+    }
+
+
+    /**
+     * Decrypt a single encrypted chunk (ciphertext and tag), used for ranged downloads
+     */
+    public byte[] decryptChunk(byte[] noncePrefix, long chunkIndex, boolean lastChunk,
+                               byte[] data, int length) throws IOException {
+        try {
+            Cipher cipher = initCipher(Cipher.DECRYPT_MODE, noncePrefix, chunkIndex, lastChunk);
+            return cipher.doFinal(data, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException("Error: Blob chunk " + chunkIndex + " can not be decrypted", e);
+        }
+    }
+
+
+    private Cipher initCipher(int mode, byte[] noncePrefix, long chunkIndex, boolean lastChunk)
+            throws GeneralSecurityException {
+        byte[] nonce = ByteBuffer.allocate(NONCE_PREFIX_SIZE + 4)
+                .put(noncePrefix)
+                .putInt((int) chunkIndex)
+                .array();
+        byte[] aad = ByteBuffer.allocate(9)
+                .putLong(chunkIndex)
+                .put((byte) (lastChunk ? 1 : 0))
+                .array();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.updateAAD(aad);
+        return cipher;
+    }
+
+
+    /**
+     * InputStream that encrypts a plain stream chunk by chunk
+     */
+    private class EncryptingInputStream extends InputStream {
+        private final InputStream plain;
+        private final long chunks;
+        private final byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        private final byte[] plainBuffer = new byte[chunkSize];
+        private long chunkIndex = 0;
+        private InputStream current;
+
+        EncryptingInputStream(InputStream plain, long chunks) {
+            this.plain = plain;
+            this.chunks = chunks;
+            random.nextBytes(noncePrefix);
+            ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_SIZE);
+            header.write(MAGIC, 0, MAGIC.length);
+            header.write(ByteBuffer.allocate(4).putInt(chunkSize).array(), 0, 4);
+            header.write(noncePrefix, 0, NONCE_PREFIX_SIZE);
+            current = new ByteArrayInputStream(header.toByteArray());
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                int readLen = current.read(b, off, len);
+                if (readLen != -1 || !nextChunk()) {
+                    return readLen;
+                }
+            }
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (chunkIndex == chunks) {
+                return false;
+            }
+            int plainLen = ByteStreams.read(plain, plainBuffer, 0, chunkSize);
+            boolean lastChunk = chunkIndex == chunks - 1;
+            if (!lastChunk && plainLen < chunkSize) {
+                throw new EOFException("Local file is shorter than expected");
+            }
+            try {
+                Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, noncePrefix, chunkIndex, lastChunk);
+                current = new ByteArrayInputStream(cipher.doFinal(plainBuffer, 0, plainLen));
+            } catch (GeneralSecurityException e) {
+                throw new EncryptionException("Error: Blob chunk " + chunkIndex + " can not be encrypted", e);
+            }
+            chunkIndex++;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            plain.close();
+        }
+    }
+
+
+    /**
+     * InputStream that decrypts an encrypted stream chunk by chunk
+     */
+    private class DecryptingInputStream extends InputStream {
+        private final InputStream encrypted;
+        private final byte[] noncePrefix;
+        private final byte[] encryptedBuffer = new byte[chunkSize + TAG_SIZE + 1];
+        private int buffered = 0;
+        private long chunkIndex = 0;
+        private boolean lastChunk = false;
+        private InputStream current = new ByteArrayInputStream(new byte[0]);
+
+        DecryptingInputStream(InputStream encrypted, byte[] noncePrefix) {
+            this.encrypted = encrypted;
+            this.noncePrefix = noncePrefix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                int readLen = current.read(b, off, len);
+                if (readLen != -1 || !nextChunk()) {
+                    return readLen;
+                }
+            }
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (lastChunk) {
+                return false;
+            }
+            // Read one byte more than a full chunk to know if this is the last chunk
+            int fullLen = chunkSize + TAG_SIZE;
+            buffered += ByteStreams.read(encrypted, encryptedBuffer, buffered, fullLen + 1 - buffered);
+            lastChunk = buffered <= fullLen;
+            int chunkLen = Math.min(buffered, fullLen);
+            current = new ByteArrayInputStream(
+                    decryptChunk(noncePrefix, chunkIndex, lastChunk, encryptedBuffer, chunkLen));
+            // Keep the extra byte for the next chunk
+            buffered -= chunkLen;
+            if (buffered > 0) {
+                encryptedBuffer[0] = encryptedBuffer[chunkLen];
+            }
+            chunkIndex++;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            encrypted.close();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * BlobStoreReadAhead reads a Blob as a sequential stream, fetching its next ranges in the background.
+ *  - Read-ahead: several ranged chunks are requested at the same time and they are returned in
+ *    order, so a sequential consumer reads at the bandwidth of several connections instead of one.
+ *  - Time to first byte: the first chunks are small and they grow up to the chunk size, so the
+ *    consumer gets its first bytes after a small request.
+ *  - Memory: at most the read-ahead number of chunks is kept in memory.
+ * Every chunk is retried on its own, a failed chunk does not restart the whole Blob. The chunks are
+ * requested with the ETag of the Blob, so a Blob replaced while it is read fails instead of mixing versions.
+ * An encrypted Blob (BlobStoreEncryption) is read in ranges of whole encrypted chunks and every range is
+ * decrypted by the thread that downloaded it, so the decryption also runs in parallel. The first range
+ * includes the header of the Blob with the nonce prefix used by the rest of the ranges.
+ * Configuration properties (all optional):
+ *  - stream_chunk_size = Size of the ranged chunks
+ *  - stream_read_ahead = Chunks requested ahead of the consumer
+ */
+
+package example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.options.GetOptions;
+
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreReadAhead extends InputStream {
+
+    private static final long FIRST_CHUNK_SIZE = 256 * 1024;      // Size of the first chunk, it doubles up to the chunk size
+
+    private final BlobStore blobStore;
+    private final BlobStoreRetry retry;
+    private final BlobStoreRateLimiter rateLimiter;
+    private final String containerName;
+    private final String blobName;
+    private final long length;
+    private final String eTag;
+    private final long chunkSize;
+    private final int readAhead;
+    private final BlobStoreEncryption encryption;
+    private final ExecutorService executor;
+
+    // Encrypted Blob: size of an encrypted chunk, number of encrypted chunks and nonce prefix of the header
+    private final long encryptedChunkSize;
+    private final long encryptedChunkCount;
+    private final CompletableFuture<byte[]> noncePrefix = new CompletableFuture<>();
+    private long nextEncryptedChunk = 0;        // Index of the first encrypted chunk of the next range
+
+    private final Deque<Future<byte[]>> chunks = new ArrayDeque<>();
+    private long nextOffset = 0;                // Offset of the next chunk requested
+    private long nextChunkSize;                 // Size of the next chunk requested
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private int chunkCount = 0;
+
+
+    public BlobStoreReadAhead(BlobStore blobStore, BlobStoreRetry retry, BlobStoreRateLimiter rateLimiter,
+                              String containerName, String blobName, long length, String eTag,
+                              BlobStoreEncryption encryption, long chunkSize, int readAhead) {
+        this.blobStore = blobStore;
+        this.retry = retry;
+        this.rateLimiter = rateLimiter;
+        this.containerName = containerName;
+        this.blobName = blobName;
+        this.length = length;
+        this.eTag = eTag;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.readAhead = Math.max(1, readAhead);
+        this.encryption = encryption;
+        if (encryption == null) {
+            this.encryptedChunkSize = 0;
+            this.encryptedChunkCount = 0;
+        } else {
+            this.encryptedChunkSize = encryption.chunkOffset(1) - encryption.chunkOffset(0);
+            this.encryptedChunkCount = encryption.chunkCount(Math.max(0, encryption.plainSize(length)));
+        }
+        this.nextChunkSize = Math.min(FIRST_CHUNK_SIZE, this.chunkSize);
+        this.executor = Executors.newFixedThreadPool(this.readAhead, runnable -> {
+            Thread thread = new Thread(runnable, "read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fill();
+    }
+
+
+    /**
+     * Create the stream of a Blob with the read-ahead configuration from the configuration properties,
+     * the Blob is decrypted if the encryption is not null
+     */
+    public static BlobStoreReadAhead fromProperties(BlobStore blobStore, BlobStoreRetry retry,
+                                                    BlobStoreRateLimiter rateLimiter, String containerName,
+                                                    String blobName, long length, String eTag,
+                                                    BlobStoreEncryption encryption, Properties prop) {
+        return new BlobStoreReadAhead(blobStore, retry, rateLimiter, containerName, blobName, length, eTag,
+                encryption,
+                Long.parseLong(prop.getProperty("stream_chunk_size", "8388608").trim()),
+                Integer.parseInt(prop.getProperty("stream_read_ahead", "4").trim()));
+    }
+
+
+    /**
+     * Get the number of chunks read
+     */
+    public int chunkCount() {
+        return chunkCount;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+
+    @Override
+    public void close() {
+        for (Future<byte[]> chunk : chunks) {
+            chunk.cancel(true);
+        }
+        chunks.clear();
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Wait for the next chunk in order and request one more
+     */
+    private boolean nextChunk() throws IOException {
+        Future<byte[]> chunk = chunks.poll();
+        if (chunk == null) {
+            return false;
+        }
+        try {
+            current = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read-ahead interrupted");
+        } catch (ExecutionException e) {
+            close();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        position = 0;
+        chunkCount++;
+        fill();
+        return true;
+    }
+
+
+    /**
+     * Request the next chunks until there are enough chunks ahead of the consumer
+     */
+    private void fill() {
+        while (chunks.size() < readAhead && nextOffset < length) {
+            long start = nextOffset;
+            long end;
+            if (encryption == null) {
+                end = Math.min(length, start + nextChunkSize) - 1;
+                chunks.add(executor.submit(() -> retry.call("getBlob", () -> getRange(start, end))));
+            } else {
+                // Whole encrypted chunks, the first range also has the header
+                long first = nextEncryptedChunk;
+                long last = Math.min(encryptedChunkCount, first + Math.max(1, nextChunkSize / encryptedChunkSize));
+                end = Math.min(length, encryption.chunkOffset(last)) - 1;
+                chunks.add(executor.submit(() -> decryptRange(start, end, first, last)));
+                nextEncryptedChunk = last;
+            }
+            nextOffset = end + 1;
+            nextChunkSize = Math.min(chunkSize, nextChunkSize * 2);
+        }
+    }
+
+
+    /**
+     * Download a range of whole encrypted chunks and decrypt them, the decryption errors are not retried
+     */
+    private byte[] decryptRange(long start, long end, long first, long last) throws IOException {
+        byte[] prefix;
+        byte[] content;
+        if (start == 0) {
+            try {
+                content = retry.call("getBlob", () -> getRange(start, end));
+                if (content.length < encryption.encryptedSize(0)) {
+                    throw new BlobStoreEncryption.EncryptionException("Blob is not encrypted or has an unknown format");
+                }
+                prefix = encryption.readHeader(new ByteArrayInputStream(content));
+                noncePrefix.complete(prefix);
+            } catch (IOException | RuntimeException e) {
+                noncePrefix.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            content = retry.call("getBlob", () -> getRange(start, end));
+            try {
+                // The first range is requested before this one, so it is already being downloaded
+                prefix = noncePrefix.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Read-ahead interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Header of the Blob not read: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(content.length);
+        for (long index = first; index < last; index++) {
+            int offset = (int) (encryption.chunkOffset(index) - start);
+            int chunkLength = (int) (Math.min(end + 1, encryption.chunkOffset(index + 1)) - start) - offset;
+            plain.write(encryption.decryptChunk(prefix, index, index == encryptedChunkCount - 1,
+                    Arrays.copyOfRange(content, offset, offset + chunkLength), chunkLength));
+        }
+        return plain.toByteArray();
+    }
+
+
+    private byte[] getRange(long start, long end) throws IOException {
+        rateLimiter.acquireRequest();
+        GetOptions options = GetOptions.Builder.range(start, end);
+        if (eTag != null) {
+            // The version of the Blob read by the first chunk
+            options.ifETagMatches(eTag);
+        }
+        Blob blob = blobStore.getBlob(containerName, blobName, options);
+        if (blob == null) {
+            throw new FileNotFoundException("Container/Blob does not exist!!");
+        }
+        byte[] content;
+        try (InputStream inputStream = rateLimiter.limit(blob.getPayload().openStream())) {
+            content = ByteStreams.toByteArray(inputStream);
+        }
+        if (content.length != end - start + 1) {
+            throw new IOException("Range " + start + "-" + end + " incomplete: " + content.length + " bytes");
+        }
+        return content;
+    }
+}
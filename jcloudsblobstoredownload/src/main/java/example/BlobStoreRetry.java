@@ -0,0 +1,432 @@
+/**
+ * BlobStoreRetry handles the retries of BlobStore operations.
+ *  - Failed attempts are retried with exponential backoff and full jitter.
+ *  - Throttling responses (429, 503, SlowDown) reduce the number of concurrent requests,
+ *    which grows again slowly while the requests succeed.
+ *  - Requests for small Blobs can be hedged: if a request takes longer than the p95 latency,
+ *    a second request is sent and the first response is used.
+ * Configuration properties (all optional):
+ *  - retry_max_attempts    = Maximum number of attempts for an operation
+ *  - retry_base_delay_ms   = Backoff delay before the first retry
+ *  - retry_max_delay_ms    = Maximum backoff delay
+ *  - retry_max_concurrency = Maximum number of concurrent requests
+ *  - hedge_enabled         = Send hedged requests for small Blobs (true/false)
+ *  - hedge_max_size        = Maximum size of a Blob to be hedged
+ *  - hedge_min_samples     = Number of latency samples before hedging
+ */
+
+package example;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.rest.AuthorizationException;
+
+
+public class BlobStoreRetry {
+
+    private static final int LATENCY_WINDOW = 200;    // Number of latency samples for the p95
+
+    /**
+     * Operation on a BlobStore that can be retried
+     */
+    public interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Release the resources of a hedged result that is not used
+     */
+    public interface Discard<T> {
+        void discard(T result);
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean hedgeEnabled;
+    private final long hedgeMaxSize;
+    private final int hedgeMinSamples;
+    private final AdaptiveLimit limit;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private ExecutorService hedgeExecutor;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+
+    public BlobStoreRetry(int maxAttempts, long baseDelayMillis, long maxDelayMillis, int maxConcurrency,
+                          boolean hedgeEnabled, long hedgeMaxSize, int hedgeMinSamples) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.limit = new AdaptiveLimit(Math.max(1, maxConcurrency));
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMaxSize = hedgeMaxSize;
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+
+    /**
+     * Get the retry configuration from the configuration properties
+     */
+    public static BlobStoreRetry fromProperties(Properties prop) {
+        return new BlobStoreRetry(
+                Integer.parseInt(prop.getProperty("retry_max_attempts", "5").trim()),
+                Long.parseLong(prop.getProperty("retry_base_delay_ms", "100").trim()),
+                Long.parseLong(prop.getProperty("retry_max_delay_ms", "10000").trim()),
+                Integer.parseInt(prop.getProperty("retry_max_concurrency", "16").trim()),
+                Boolean.parseBoolean(prop.getProperty("hedge_enabled", "false").trim()),
+                Long.parseLong(prop.getProperty("hedge_max_size", "1048576").trim()),
+                Integer.parseInt(prop.getProperty("hedge_min_samples", "20").trim()));
+    }
+
+
+    /**
+     * Check if the requests can be hedged
+     */
+    public boolean hedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+
+    /**
+     * Get the maximum size of a Blob to be hedged
+     */
+    public long hedgeMaxSize() {
+        return hedgeMaxSize;
+    }
+
+
+    /**
+     * Get the current number of concurrent requests allowed
+     */
+    public int currentConcurrency() {
+        return limit.current();
+    }
+
+
+    /**
+     * Run an operation, retrying it while it fails with a retryable error
+     */
+    public <T> T call(String name, Operation<T> operation) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(operation);
+            } catch (IOException | RuntimeException e) {
+                retryOrThrow(name, attempt, e);
+            }
+        }
+    }
+
+
+    /**
+     * Run an operation, sending a hedged request if it takes longer than the p95 latency,
+     * and retrying it while it fails with a retryable error
+     */
+    public <T> T callHedged(String name, Operation<T> operation, Discard<T> discard) throws IOException {
+        long hedgeDelayNanos = hedgeDelayNanos();
+        if (hedgeDelayNanos < 0) {
+            return call(name, operation);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return hedgedAttempt(operation, discard, hedgeDelayNanos);
+            } catch (IOException | RuntimeException e) {
+                retryOrThrow(name, attempt, e);
+            }
+        }
+    }
+
+
+    /**
+     * Print the statistics of the requests
+     */
+    public void printStatistics(String provider) {
+        System.out.printf("Requests on \"%s\": %d attempts, %d retries, %d throttled, %d hedged (%d won), "
+                        + "p95 latency %d ms, concurrency %d\n",
+                provider, attempts.get(), retries.get(), throttled.get(), hedged.get(), hedgeWins.get(),
+                TimeUnit.NANOSECONDS.toMillis(Math.max(0, percentileNanos(0.95))), limit.current());
+    }
+
+
+    /**
+     * Release the threads used for hedged requests
+     */
+    public synchronized void close() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+            hedgeExecutor = null;
+        }
+    }
+
+
+    private <T> T attempt(Operation<T> operation) throws IOException {
+        try {
+            limit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+        attempts.incrementAndGet();
+        long start = System.nanoTime();
+        boolean wasThrottled = false;
+        try {
+            T result = operation.run();
+            recordLatency(System.nanoTime() - start);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            wasThrottled = isThrottled(e);
+            throw e;
+        } finally {
+            limit.release(wasThrottled);
+        }
+    }
+
+
+    private <T> T hedgedAttempt(final Operation<T> operation, final Discard<T> discard, long hedgeDelayNanos)
+            throws IOException {
+        CompletionService<T> completion = new ExecutorCompletionService<>(hedgeExecutor());
+        Future<T> primary = completion.submit(() -> attempt(operation));
+        Future<T> secondary = null;
+        try {
+            Future<T> done = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                // The request is slower than the p95 latency, send a hedged request
+                hedged.incrementAndGet();
+                secondary = completion.submit(() -> attempt(operation));
+                done = completion.take();
+            }
+            Future<T> other = done == primary ? secondary : primary;
+            try {
+                T result = done.get();
+                if (done == secondary) {
+                    hedgeWins.incrementAndGet();
+                }
+                discardLater(other, discard);
+                return result;
+            } catch (ExecutionException e) {
+                if (other == null) {
+                    throw e;
+                }
+                // The first response failed, use the other one
+                return completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            primary.cancel(true);
+            if (secondary != null) {
+                secondary.cancel(true);
+            }
+            throw new InterruptedIOException("Interrupted while waiting for a hedged request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+
+    private <T> void discardLater(final Future<T> other, final Discard<T> discard) {
+        if (other == null) {
+            return;
+        }
+        hedgeExecutor().submit(() -> {
+            try {
+                discard.discard(other.get());
+            } catch (InterruptedException | ExecutionException e) {
+                // Nothing to release
+            }
+        });
+    }
+
+
+    private synchronized ExecutorService hedgeExecutor() {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "blobstore-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return hedgeExecutor;
+    }
+
+
+    private void retryOrThrow(String name, int attempt, Exception e) throws IOException {
+        boolean wasThrottled = isThrottled(e);
+        if (wasThrottled) {
+            throttled.incrementAndGet();
+        }
+        if (attempt >= maxAttempts || !isRetryable(e)) {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw (RuntimeException) e;
+        }
+        retries.incrementAndGet();
+        // Exponential backoff with full jitter, throttled requests wait at least the base delay
+        long maxDelay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        long delay = ThreadLocalRandom.current().nextLong(maxDelay + 1);
+        if (wasThrottled) {
+            delay = Math.max(delay, baseDelayMillis);
+        }
+        System.out.printf("Retrying %s (attempt %d of %d) in %d ms: %s\n",
+                name, attempt + 1, maxAttempts, delay, firstLine(e));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + name);
+        }
+    }
+
+
+    private long hedgeDelayNanos() {
+        if (!hedgeEnabled) {
+            return -1;
+        }
+        synchronized (latencies) {
+            if (latencyCount < hedgeMinSamples) {
+                return -1;
+            }
+        }
+        return percentileNanos(0.95);
+    }
+
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_WINDOW] = nanos;
+            latencyCount++;
+        }
+    }
+
+
+    private long percentileNanos(double percentile) {
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        if (samples.length == 0) {
+            return -1;
+        }
+        Arrays.sort(samples);
+        return samples[Math.min(samples.length - 1, (int) Math.ceil(percentile * samples.length) - 1)];
+    }
+
+
+    /**
+     * Check if an error is caused by the provider throttling the requests
+     */
+    public static boolean isThrottled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpResponseException && ((HttpResponseException) cause).getResponse() != null) {
+                int statusCode = ((HttpResponseException) cause).getResponse().getStatusCode();
+                if (statusCode == 429 || statusCode == 503) {
+                    return true;
+                }
+            }
+            String message = cause.getMessage();
+            if (message != null && (message.contains("SlowDown") || message.contains("TooManyRequests")
+                    || message.contains("ServerBusy"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Check if an error is transient and the operation can be retried
+     */
+    public static boolean isRetryable(Throwable e) {
+        if (isThrottled(e)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AuthorizationException || cause instanceof InterruptedIOException
+                    || cause instanceof FileNotFoundException
+                    || cause instanceof BlobStoreEncryption.EncryptionException) {
+                return false;
+            }
+            if (cause instanceof HttpResponseException && ((HttpResponseException) cause).getResponse() != null) {
+                int statusCode = ((HttpResponseException) cause).getResponse().getStatusCode();
+                return statusCode >= 500 || statusCode == 408;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Get the first line of the message of an error, without the body of an HTTP response
+     */
+    private static String firstLine(Exception e) {
+        String message = String.valueOf(e.getMessage());
+        return message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message;
+    }
+
+
+    /**
+     * Limit of concurrent requests that is halved when the provider throttles the requests
+     * and grows again by one request for every window of successful requests
+     */
+    private static class AdaptiveLimit {
+        private final int maxLimit;
+        private double limit;
+        private int inFlight = 0;
+
+        AdaptiveLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            this.limit = maxLimit;
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+            inFlight++;
+        }
+
+        synchronized void release(boolean throttled) {
+            inFlight--;
+            if (throttled) {
+                limit = Math.max(1, limit / 2);
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            notifyAll();
+        }
+
+        synchronized int current() {
+            return (int) limit;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+#!/bin/sh
+# Cold start benchmark of the example: time from the JVM start until the contexts of the three
+# providers are ready, in the training mode (no credentials nor requests), median of RUNS runs of
+# every build. It needs Java 11 or later for the AppCDS archive, java and mvn are taken from the PATH
+# (or $JAVA and $MVN). Prints the results as a Markdown table.
+# Usage: ./startup-benchmark.sh [RUNS]
+
+set -e
+cd "$(dirname "$0")"
+
+RUNS=${1:-5}
+JAVA=${JAVA:-java}
+MVN=${MVN:-mvn}
+OPENS="--add-opens java.base/java.lang=ALL-UNNAMED"    # Guice class generation since Java 16
+WORK=target/startup-benchmark
+
+# Before: all the jclouds BlobStore providers, every context built when it is used
+rm -rf "$WORK"
+mkdir -p "$WORK"
+$MVN -B -q package -Pallblobstore,appcds > "$WORK/build.log" 2>&1
+cp target/jclouds-*-1.0.0.jar "$WORK/allblobstore.jar"
+
+# After: only the providers used, the contexts built in parallel, and the AppCDS archive.
+# The archive is only used with the same jar path as the build, an absolute path
+$MVN -B -q package -Pappcds >> "$WORK/build.log" 2>&1
+JAR=$PWD/$(ls target/jclouds-*-1.0.0.jar)
+
+# Print the median time of a build: NAME JAR [JVM_OPTIONS]
+run() {
+    name=$1
+    jar=$2
+    shift 2
+    for i in $(seq "$RUNS"); do
+        $JAVA $OPENS "$@" -Dstartup.training=true -Dstartup.timing=true -jar "$jar" \
+            | sed -n 's/.*context ready \([0-9]*\) ms after the JVM start/\1/p' | sort -n | tail -1
+    done | sort -n | awk -v name="$name" '{ t[NR] = $1 } END { printf "| %-52s | %4d ms |\n", name, t[int((NR + 1) / 2)] }'
+}
+
+echo "Time until the three contexts are ready ($($JAVA -version 2>&1 | head -1), $(nproc) CPU, median of $RUNS runs):"
+echo
+echo "| Build                                                | Time    |"
+echo "|------------------------------------------------------|---------|"
+run '`jclouds-allblobstore`, contexts built serially' "$WORK/allblobstore.jar" -Dstartup.parallel=false
+run 'Only the providers used, contexts built serially' "$JAR" -Dstartup.parallel=false
+run 'Only the providers used, contexts built in parallel' "$JAR"
+run '+ AppCDS archive' "$JAR" -Xshare:on -XX:SharedArchiveFile=target/app.jsa
+run '+ AppCDS archive and `-XX:TieredStopAtLevel=1`' "$JAR" -Xshare:on -XX:SharedArchiveFile=target/app.jsa \
+    -XX:TieredStopAtLevel=1
@@ -4,13 +4,27 @@
  *  - S3 bucket on AWS (Amazon Web Services)
  *  - Blob Storage container on Microsoft Azure
  *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * Probe mode, measure the latency and the throughput of every location in parallel and save the
+ * results, you must provide 3 parameters:
+ * probe
+ * CONTAINER_PREFIX = Prefix of the temporary containers created in every location
+ * RESULTS_FILE     = Local file where the results are appended with the time of the probe
  */
 
 package example;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
@@ -25,9 +39,15 @@ public class BlobStoreGetLocations {
     private static String azureAccountKey;
     private static String gcloudClientEmail;
     private static String gcloudPrivateKey;
+    private static Properties configuration;        // Configuration for the probe
 
     public static void main(String[] args) throws IOException {
 
+        if (args.length > 0 && "probe".equals(args[0])) {
+            probe(args);
+            return;
+        }
+
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
@@ -74,6 +94,8 @@ public class BlobStoreGetLocations {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Probe
+        configuration = prop;
     }
 
 
@@ -97,4 +119,108 @@ public class BlobStoreGetLocations {
         // Disconnect
         context.close();
     }
+
+
+    /**
+     * Probe all the locations of the providers in parallel and append the results to a file
+     */
+    private static void probe(String[] args) {
+
+        if (args.length < 3) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoregetlocations.jar probe <CONTAINER_PREFIX> <RESULTS_FILE>");
+            System.exit(1);
+        }
+
+        // The prefix of the temporary containers
+        String containerPrefix = args[1];
+        // The file with the results
+        String resultsFileName = args[2];
+
+        System.out.println("Container prefix: " + containerPrefix);
+        System.out.println("Results file:     " + resultsFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        int requests = Integer.parseInt(configuration.getProperty("probe_requests", "5").trim());
+        int objectSize = Integer.parseInt(configuration.getProperty("probe_object_size", "65536").trim());
+        int concurrency = Integer.parseInt(configuration.getProperty("probe_concurrency", "8").trim());
+        BlobStoreLocationProbe probe = new BlobStoreLocationProbe(requests, objectSize);
+
+        Map<String, BlobStoreContext> contexts = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        try {
+            // ******************** AWS S3 provider ********************
+            connect(contexts, "aws-s3", awsAccessKeyId, awsSecretKey);
+            // ******************** Azure Blob Storage provider ********************
+            connect(contexts, "azureblob", azureAccountName, azureAccountKey);
+            // ******************** Google Cloud Storage provider ********************
+            connect(contexts, "google-cloud-storage", gcloudClientEmail, gcloudPrivateKey);
+
+            // The locations of all the providers are probed at the same time
+            List<Future<BlobStoreProbeResults.Result>> futures = new ArrayList<>();
+            for (Map.Entry<String, BlobStoreContext> entry : contexts.entrySet()) {
+                String provider = entry.getKey();
+                BlobStore blobStore = entry.getValue().getBlobStore();
+                try {
+                    for (Location location : blobStore.listAssignableLocations()) {
+                        String containerName = BlobStoreLocationProbe.containerName(containerPrefix, location);
+                        futures.add(executor.submit(() -> probe.probe(provider, blobStore, location, containerName)));
+                    }
+                } catch (RuntimeException e) {
+                    System.out.printf("Error: Locations on \"%s\" not available: %s\n", provider, e.getMessage());
+                }
+            }
+            System.out.printf("Probing %d locations, %d requests of %d bytes for every location ...\n",
+                    futures.size(), requests, objectSize);
+
+            List<BlobStoreProbeResults.Result> results = new ArrayList<>();
+            for (Future<BlobStoreProbeResults.Result> future : futures) {
+                results.add(future.get());
+            }
+            results.sort(Comparator.comparing((BlobStoreProbeResults.Result r) -> r.provider)
+                    .thenComparing(r -> r.errors > 0)
+                    .thenComparingDouble(r -> r.latencyMillis));
+            for (BlobStoreProbeResults.Result result : results) {
+                if (result.errors > 0) {
+                    System.out.printf("  %-22s %-28s error\n", result.provider, result.location);
+                } else {
+                    System.out.printf("  %-22s %-28s %8.1f ms %10.2f MB/s\n", result.provider, result.location,
+                            result.latencyMillis, result.bytesPerSecond / (1024 * 1024));
+                }
+            }
+
+            BlobStoreProbeResults.append(resultsFileName, results);
+            for (BlobStoreProbeResults.Result result : BlobStoreProbeResults.fastest(resultsFileName, Long.MAX_VALUE).values()) {
+                System.out.printf("Fastest location on \"%s\": %s\n", result.provider, result.location);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            for (BlobStoreContext context : contexts.values()) {
+                // Disconnect
+                context.close();
+            }
+        }
+    }
+
+
+    private static void connect(Map<String, BlobStoreContext> contexts, String provider, String identity,
+                                String credential) {
+        try {
+            // Init
+            BlobStoreContext context = ContextBuilder.newBuilder(provider)
+                    .credentials(identity, credential)
+                    .buildView(BlobStoreContext.class);
+            contexts.put(provider, context);
+        } catch (RuntimeException e) {
+            System.out.printf("Error: Context on \"%s\" not available: %s\n", provider, e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,142 @@
+/**
+ * BlobStoreLocationProbe measures the latency and the throughput of the locations of a provider.
+ * A temporary container is created in every location and a small object is uploaded, read and
+ * downloaded several times:
+ *  - Latency: median time of a metadata request of the object (one round trip).
+ *  - Throughput: bytes uploaded and downloaded per second.
+ * The first request of every location opens the connection and it is not measured. The container
+ * name has a random suffix and the location is not probed if the container already exists, so the
+ * probe never writes to nor deletes a container that it did not create. The container is deleted at
+ * the end of the probe.
+ */
+
+package example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.domain.Location;
+
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreLocationProbe {
+
+    private static final String PROBE_BLOB_NAME = "probe.bin";
+    private static final int MAX_CONTAINER_NAME_LENGTH = 63;
+
+    private final int requests;
+    private final byte[] payload;
+
+
+    public BlobStoreLocationProbe(int requests, int objectSize) {
+        this.requests = Math.max(1, requests);
+        this.payload = new byte[Math.max(1, objectSize)];
+        new Random().nextBytes(payload);
+    }
+
+
+    /**
+     * Name of the temporary container of a location with a random suffix, lowercase letters, digits and hyphens
+     */
+    public static String containerName(String containerPrefix, Location location) {
+        String suffix = String.format("-%08x", ThreadLocalRandom.current().nextInt());
+        String name = (containerPrefix + "-" + location.getId()).toLowerCase(Locale.ROOT)
+                .replaceAll("[^a-z0-9-]", "-");
+        if (name.length() > MAX_CONTAINER_NAME_LENGTH - suffix.length()) {
+            name = name.substring(0, MAX_CONTAINER_NAME_LENGTH - suffix.length());
+        }
+        return (name + suffix).replaceAll("-+", "-");
+    }
+
+
+    /**
+     * Probe a location, the failed requests are counted in the result
+     */
+    public BlobStoreProbeResults.Result probe(String provider, BlobStore blobStore, Location location,
+                                              String containerName) {
+        long time = System.currentTimeMillis();
+        List<Long> latencies = new ArrayList<>();
+        long transferred = 0;
+        long transferNanos = 0;
+        int errors = 0;
+        boolean created = false;
+        try {
+            created = blobStore.createContainerInLocation(location, containerName);
+            if (!created) {
+                // The container is not ours, its Blobs are not overwritten nor deleted
+                throw new IOException("Container \"" + containerName + "\" already exists, location not probed");
+            }
+
+            // Open the connection
+            upload(blobStore, containerName);
+
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                blobStore.blobMetadata(containerName, PROBE_BLOB_NAME);
+                latencies.add(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                upload(blobStore, containerName);
+                transferred += payload.length;
+                transferred += download(blobStore, containerName);
+                transferNanos += System.nanoTime() - start;
+            }
+        } catch (IOException | RuntimeException e) {
+            errors++;
+            System.out.printf("Error: Location \"%s\" on \"%s\": %s\n", location.getId(), provider, firstLine(e));
+        } finally {
+            try {
+                if (created) {
+                    blobStore.deleteContainer(containerName);
+                }
+            } catch (RuntimeException e) {
+                System.out.printf("Error: Container \"%s\" on \"%s\" not deleted: %s\n", containerName, provider,
+                        firstLine(e));
+            }
+        }
+
+        double latencyMillis = 0;
+        if (!latencies.isEmpty()) {
+            Collections.sort(latencies);
+            latencyMillis = latencies.get(latencies.size() / 2) / 1e6;
+        }
+        double bytesPerSecond = transferNanos == 0 ? 0 : transferred * 1e9 / transferNanos;
+        return new BlobStoreProbeResults.Result(time, provider, location.getId(), latencyMillis, bytesPerSecond,
+                errors);
+    }
+
+
+    private void upload(BlobStore blobStore, String containerName) {
+        Blob blob = blobStore.blobBuilder(PROBE_BLOB_NAME)
+                .payload(payload)
+                .contentLength(payload.length)
+                .build();
+        blobStore.putBlob(containerName, blob);
+    }
+
+
+    private long download(BlobStore blobStore, String containerName) throws IOException {
+        Blob blob = blobStore.getBlob(containerName, PROBE_BLOB_NAME);
+        if (blob == null) {
+            throw new IOException("Blob \"" + PROBE_BLOB_NAME + "\" not found");
+        }
+        try (InputStream is = blob.getPayload().openStream()) {
+            return ByteStreams.copy(is, ByteStreams.nullOutputStream());
+        }
+    }
+
+
+    private static String firstLine(Exception e) {
+        String message = String.valueOf(e.getMessage());
+        return message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message;
+    }
+}
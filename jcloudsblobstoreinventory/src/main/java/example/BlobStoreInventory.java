@@ -0,0 +1,213 @@
+/**
+ * BlobStoreInventory is an example that handles a BlobStore container.
+ * Write an inventory snapshot of a BlobStore container and compare two snapshots
+ * in several cloud providers:
+ *  - S3 bucket on AWS (Amazon Web Services)
+ *  - Blob Storage container on Microsoft Azure
+ *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * Snapshot mode, you must provide 3 parameters:
+ * snapshot
+ * CONTAINER_NAME = Name of the container
+ * SNAPSHOT_FILE  = Local snapshot file name
+ * Diff mode, you must provide 3 parameters:
+ * diff
+ * OLD_SNAPSHOT_FILE = Local snapshot file name of the previous state
+ * NEW_SNAPSHOT_FILE = Local snapshot file name of the current state
+ */
+
+package example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.ListContainerOptions;
+
+
+public class BlobStoreInventory {
+
+    private static final int MAX_RUN_SIZE = 500000;     // Maximum entries sorted in memory
+
+    private static String awsAccessKeyId;           // AWS Access Key ID
+    private static String awsSecretKey;             // AWS Secret Key
+    private static String azureAccountName;         // Azure Storage Account Name
+    private static String azureAccountKey;          // Azure Storage Account Key
+    private static String gcloudClientEmail;        // Google Cloud Client email
+    private static String gcloudPrivateKey;         // Google Cloud Private Key
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3 || !("snapshot".equals(args[0]) || "diff".equals(args[0]))) {
+            System.out.println("Not enough parameters.\nProper Usage is:\n"
+                    + "  java -jar blobstoreinventory.jar snapshot <CONTAINER_NAME> <SNAPSHOT_FILE>\n"
+                    + "  java -jar blobstoreinventory.jar diff <OLD_SNAPSHOT_FILE> <NEW_SNAPSHOT_FILE>");
+            System.exit(1);
+        }
+
+        if ("diff".equals(args[0])) {
+            // Compare two local snapshots, no cloud provider is used
+            diffInventory(args[1], args[2]);
+            return;
+        }
+
+        // The name for the container
+        String containerName = args[1];
+        // The name for the local snapshot file
+        String snapshotFileName = args[2];
+
+        System.out.println("Container name:     " + containerName);
+        System.out.println("Snapshot file name: " + snapshotFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        snapshotBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, snapshotFileName + ".aws");
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        snapshotBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, snapshotFileName + ".azure");
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        snapshotBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, snapshotFileName + ".gcloud");
+    }
+
+
+    /**
+     * Load Configuration from a file and get the authentication credentials for every provider
+     */
+    private static void loadConfiguration() {
+
+        // The connection string is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        // AWS
+        awsAccessKeyId = prop.getProperty("aws_access_key_id");
+        awsSecretKey = prop.getProperty("aws_secret_access_key");
+        // Azure
+        azureAccountName = prop.getProperty("azure_account_name");
+        azureAccountKey = prop.getProperty("azure_account_key");
+        // Google Cloud
+        gcloudClientEmail = prop.getProperty("gcloud_client_email");
+        gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+    }
+
+
+    /**
+     * Write an inventory snapshot of a BlobStore container to a local file
+     */
+    private static void snapshotBlobStore(String provider, String identity, String credential,
+                                          String containerName, String snapshotFileName) {
+        // Init
+        BlobStoreContext context = ContextBuilder.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+
+        System.out.printf("Writing inventory of BlobStore container on \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+
+        long start = System.currentTimeMillis();
+        BlobStoreInventoryFile.SortingWriter writer =
+                new BlobStoreInventoryFile.SortingWriter(new File(snapshotFileName), MAX_RUN_SIZE);
+        try {
+            // List all the Blobs in the BlobStore container, page by page
+            ListContainerOptions options = ListContainerOptions.Builder.recursive();
+            String marker = null;
+            do {
+                if (marker != null) {
+                    options.afterMarker(marker);
+                }
+                PageSet<? extends StorageMetadata> page = blobStore.list(containerName, options);
+                for (StorageMetadata resourceMd : page) {
+                    if (resourceMd.getType() == StorageType.BLOB) {
+                        writer.add(new BlobStoreInventoryFile.Entry(resourceMd.getName(),
+                                resourceMd.getSize() == null ? -1 : resourceMd.getSize(),
+                                resourceMd.getETag(),
+                                resourceMd.getLastModified() == null ? -1 : resourceMd.getLastModified().getTime()));
+                    }
+                }
+                marker = page.getNextMarker();
+            } while (marker != null);
+            writer.close();
+
+            System.out.printf("Written %d blobs in %d ms.\n", writer.count(), System.currentTimeMillis() - start);
+            System.out.println("Snapshot File: " + snapshotFileName);
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            // Disconnect
+            context.close();
+        }
+    }
+
+
+    /**
+     * Compare two inventory snapshots and print the added (+), changed (~) and removed (-) Blobs.
+     * Both snapshots are sorted by name, so they are merged while they are read.
+     */
+    private static void diffInventory(String oldSnapshotFileName, String newSnapshotFileName) {
+        long added = 0;
+        long changed = 0;
+        long removed = 0;
+        long unchanged = 0;
+
+        try (BlobStoreInventoryFile.Reader oldReader = new BlobStoreInventoryFile.Reader(new File(oldSnapshotFileName));
+             BlobStoreInventoryFile.Reader newReader = new BlobStoreInventoryFile.Reader(new File(newSnapshotFileName))) {
+            BlobStoreInventoryFile.Entry oldEntry = oldReader.read();
+            BlobStoreInventoryFile.Entry newEntry = newReader.read();
+            while (oldEntry != null || newEntry != null) {
+                int compare = oldEntry == null ? 1 : newEntry == null ? -1 : oldEntry.name.compareTo(newEntry.name);
+                if (compare < 0) {
+                    System.out.println("-\t" + oldEntry);
+                    removed++;
+                    oldEntry = oldReader.read();
+                } else if (compare > 0) {
+                    System.out.println("+\t" + newEntry);
+                    added++;
+                    newEntry = newReader.read();
+                } else {
+                    if (oldEntry.changed(newEntry)) {
+                        System.out.println("~\t" + newEntry);
+                        changed++;
+                    } else {
+                        unchanged++;
+                    }
+                    oldEntry = oldReader.read();
+                    newEntry = newReader.read();
+                }
+            }
+            System.out.printf("Added: %d, Changed: %d, Removed: %d, Unchanged: %d\n",
+                    added, changed, removed, unchanged);
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * BlobStoreInventoryFile handles the inventory snapshot files.
+ * A snapshot file contains the Blobs of a container sorted by name:
+ *  - Header: magic "JCI1" (4 bytes)
+ *  - Entries: name (length of the prefix shared with the previous name and the rest of the name
+ *    in UTF-8), size, ETag and last modified time (milliseconds, -1 if unknown)
+ *  - End: an entry with a prefix length of -1
+ * Numbers are written as variable length integers, so the file is compact and it is read and
+ * written as a stream, without loading the whole inventory in memory.
+ */
+
+package example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+public class BlobStoreInventoryFile {
+
+    private static final byte[] MAGIC = {'J', 'C', 'I', '1'};   // Inventory file format identifier
+    private static final int BUFFER_SIZE = 1024*64;             // Buffer size for the files
+
+
+    /**
+     * Blob in an inventory
+     */
+    public static class Entry {
+        public final String name;
+        public final long size;
+        public final String eTag;
+        public final long lastModified;
+
+        public Entry(String name, long size, String eTag, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.eTag = eTag == null ? "" : eTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Check if the content of the Blob is different from another one
+         */
+        public boolean changed(Entry other) {
+            if (size != other.size) {
+                return true;
+            }
+            if (!eTag.isEmpty() && !other.eTag.isEmpty()) {
+                return !eTag.equals(other.eTag);
+            }
+            return lastModified != other.lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return name + "\t" + size + "\t" + eTag + "\t" + lastModified;
+        }
+    }
+
+
+    private static final Comparator<Entry> BY_NAME = Comparator.comparing(e -> e.name);
+
+
+    /**
+     * Write the entries of an inventory, the entries must be written sorted by name
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private byte[] previousName = new byte[0];
+        private String previous = null;
+        private long count = 0;
+
+        public Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            out.write(MAGIC);
+        }
+
+        public void write(Entry entry) throws IOException {
+            if (previous != null && previous.compareTo(entry.name) >= 0) {
+                throw new IllegalStateException("Inventory entries are not sorted: " + entry.name);
+            }
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int maxShared = Math.min(name.length, previousName.length);
+            while (shared < maxShared && name[shared] == previousName[shared]) {
+                shared++;
+            }
+            writeVarLong(out, shared);
+            writeVarLong(out, name.length - shared);
+            out.write(name, shared, name.length - shared);
+            writeVarLong(out, entry.size);
+            byte[] eTag = entry.eTag.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, eTag.length);
+            out.write(eTag);
+            writeVarLong(out, entry.lastModified + 1);
+            previousName = name;
+            previous = entry.name;
+            count++;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeVarLong(out, -1);
+            out.close();
+        }
+    }
+
+
+    /**
+     * Read the entries of an inventory sorted by name
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private byte[] previousName = new byte[0];
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                in.close();
+                throw new IOException("Not an inventory file: " + file);
+            }
+        }
+
+        /**
+         * Read the next entry, null at the end of the inventory
+         */
+        public Entry read() throws IOException {
+            long shared = readVarLong(in);
+            if (shared < 0) {
+                return null;
+            }
+            int suffixLength = (int) readVarLong(in);
+            byte[] name = Arrays.copyOf(previousName, (int) shared + suffixLength);
+            in.readFully(name, (int) shared, suffixLength);
+            long size = readVarLong(in);
+            byte[] eTag = new byte[(int) readVarLong(in)];
+            in.readFully(eTag);
+            long lastModified = readVarLong(in) - 1;
+            previousName = name;
+            return new Entry(new String(name, StandardCharsets.UTF_8), size,
+                    new String(eTag, StandardCharsets.UTF_8), lastModified);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Write an inventory from entries in any order.
+     * The entries are sorted in runs of a maximum size that are written to temporary files,
+     * and the runs are merged into the inventory, so the memory used does not depend on the
+     * number of Blobs.
+     */
+    public static class SortingWriter implements Closeable {
+        private final File file;
+        private final int maxRunSize;
+        private final List<Entry> run = new ArrayList<>();
+        private final List<File> runFiles = new ArrayList<>();
+        private long count = 0;
+
+        public SortingWriter(File file, int maxRunSize) {
+            this.file = file;
+            this.maxRunSize = maxRunSize;
+        }
+
+        public void add(Entry entry) throws IOException {
+            run.add(entry);
+            count++;
+            if (run.size() >= maxRunSize) {
+                writeRun();
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+
+        private void writeRun() throws IOException {
+            File runFile = File.createTempFile("inventory", ".run", file.getAbsoluteFile().getParentFile());
+            runFile.deleteOnExit();
+            writeSorted(run, runFile);
+            runFiles.add(runFile);
+            run.clear();
+        }
+
+        private static void writeSorted(List<Entry> entries, File target) throws IOException {
+            Collections.sort(entries, BY_NAME);
+            try (Writer writer = new Writer(target)) {
+                Entry previous = null;
+                for (Entry entry : entries) {
+                    // A listing can return the same Blob twice if it changes while it is listed
+                    if (previous == null || !previous.name.equals(entry.name)) {
+                        writer.write(entry);
+                    }
+                    previous = entry;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (runFiles.isEmpty()) {
+                writeSorted(run, file);
+                return;
+            }
+            if (!run.isEmpty()) {
+                writeRun();
+            }
+            // Merge the sorted runs
+            PriorityQueue<RunHead> heads = new PriorityQueue<>((a, b) -> BY_NAME.compare(a.entry, b.entry));
+            List<Reader> readers = new ArrayList<>();
+            try (Writer writer = new Writer(file)) {
+                for (File runFile : runFiles) {
+                    Reader reader = new Reader(runFile);
+                    readers.add(reader);
+                    Entry entry = reader.read();
+                    if (entry != null) {
+                        heads.add(new RunHead(entry, reader));
+                    }
+                }
+                String previous = null;
+                while (!heads.isEmpty()) {
+                    RunHead head = heads.poll();
+                    if (previous == null || !previous.equals(head.entry.name)) {
+                        writer.write(head.entry);
+                        previous = head.entry.name;
+                    }
+                    Entry next = head.reader.read();
+                    if (next != null) {
+                        heads.add(new RunHead(next, head.reader));
+                    }
+                }
+            } finally {
+                for (Reader reader : readers) {
+                    reader.close();
+                }
+                for (File runFile : runFiles) {
+                    runFile.delete();
+                }
+            }
+        }
+
+        private static class RunHead {
+            final Entry entry;
+            final Reader reader;
+
+            RunHead(Entry entry, Reader reader) {
+                this.entry = entry;
+                this.reader = reader;
+            }
+        }
+    }
+
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        // Zigzag encoding, so small negative values are also short
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte() & 0xFF;
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new EOFException("Malformed inventory file");
+    }
+}
@@ -6,6 +6,8 @@
  *  - Cloud Storage bucket on Google Cloud Platform (GCP)
  * You must provide 1 parameter:
  * CONTAINER_NAME = Name of the container
+ * Optionally, for a parallel listing of all the Blobs:
+ * CONCURRENCY    = Number of shards of the container listed at the same time
  */
 
 package example;
@@ -13,8 +15,9 @@ package example;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.StorageMetadata;
@@ -27,28 +30,37 @@ public class BlobStoreList {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the connections
 
     public static void main(String[] args) throws IOException {
 
         if (args.length < 1) {
-            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorelist.jar <CONTAINER_NAME>");
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorelist.jar <CONTAINER_NAME> [<CONCURRENCY>]");
             System.exit(1);
         }
 
         // The name for the new container
         String containerName = args[0];
+        // The number of shards listed at the same time (0 = serial listing)
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 0;
 
         System.out.println("Container name: " + containerName);
+        if (concurrency > 0) {
+            System.out.println("Concurrency:    " + concurrency);
+        }
 
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
+        // The parallel listing keeps more connections alive
+        BlobStoreConnections.configure(configuration, concurrency > 0);
+
         // ******************** AWS S3 provider ********************
 
         System.out.println("AWS S3 bucket:");
 
         listBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
-                containerName);
+                containerName, concurrency);
 
         System.out.println();
 
@@ -57,7 +69,7 @@ public class BlobStoreList {
         System.out.println("Azure Blob Storage container:");
 
         listBlobStore("azureblob", azureAccountName, azureAccountKey,
-                containerName);
+                containerName, concurrency);
 
         System.out.println();
 
@@ -66,7 +78,7 @@ public class BlobStoreList {
         System.out.println("Google Cloud Storage bucket:");
 
         listBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
-                containerName);
+                containerName, concurrency);
 
         System.out.println();
     }
@@ -95,16 +107,35 @@ public class BlobStoreList {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Connections
+        configuration = prop;
     }
 
 
     /**
-     * List Blobs in a BlobStore container
+     * List Blobs in a BlobStore container of a provider with a configuration, for other
+     * applications (Ex.: the load test) running the example without its command line.
+     * The messages are printed as with the command line, returns false if the listing failed
      */
-    private static void listBlobStore(String provider, String identity, String credential,
-                                        String containerName) {
+    public static boolean list(Properties prop, String provider, String identity, String credential,
+                               String containerName, int concurrency) {
+        synchronized (BlobStoreList.class) {
+            if (configuration != prop) {
+                configuration = prop;
+                BlobStoreConnections.configure(configuration, concurrency > 0);
+            }
+        }
+        return listBlobStore(provider, identity, credential, containerName, concurrency);
+    }
+
+
+    /**
+     * List Blobs in a BlobStore container, returns false if the listing failed
+     */
+    private static boolean listBlobStore(String provider, String identity, String credential,
+                                         String containerName, int concurrency) {
         // Init
-        BlobStoreContext context = ContextBuilder.newBuilder(provider)
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
                 .credentials(identity, credential)
                 .buildView(BlobStoreContext.class);
 
@@ -112,18 +143,47 @@ public class BlobStoreList {
 
         // Instantiate a BlobStore
         BlobStore blobStore = context.getBlobStore();
-
-
-        // List BlobStore container
-        for (StorageMetadata resourceMd : blobStore.list(containerName)) {
-            System.out.println(" - " + resourceMd.getName());
-            System.out.println("   " + resourceMd);
+        boolean listed = false;
+
+        if (concurrency > 0) {
+            // List all the Blobs in BlobStore container, splitting the container in shards listed in parallel
+            long start = System.currentTimeMillis();
+            AtomicLong count = new AtomicLong();
+            BlobStoreParallelList parallelList = new BlobStoreParallelList(blobStore, containerName, concurrency);
+            try {
+                parallelList.list(resourceMd -> {
+                    System.out.println(" - " + resourceMd.getName());
+                    System.out.println("   " + resourceMd);
+                    count.incrementAndGet();
+                });
+                System.out.printf("Listed %d blobs in %d shards in %d ms.\n",
+                        count.get(), parallelList.shardCount(), System.currentTimeMillis() - start);
+                listed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Error: Listing interrupted!!");
+            } catch (ExecutionException e) {
+                System.out.println("Error: " + e.getCause().getMessage());
+            }
+        } else {
+            try {
+                // List BlobStore container
+                for (StorageMetadata resourceMd : blobStore.list(containerName)) {
+                    System.out.println(" - " + resourceMd.getName());
+                    System.out.println("   " + resourceMd);
+                }
+
+                System.out.println("Listed.");
+                listed = true;
+            } catch (RuntimeException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
         }
-
-        System.out.println("Listed.");
+        BlobStoreConnections.printStatistics(provider);
 
         // Disconnect
         context.close();
+        return listed;
     }
 }
 
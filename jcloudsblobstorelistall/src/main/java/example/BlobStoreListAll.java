@@ -4,15 +4,23 @@
  *  - S3 bucket on AWS (Amazon Web Services)
  *  - Blob Storage container on Microsoft Azure
  *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * Optionally, for a usage report of all the containers, you must provide 3 parameters:
+ * usage
+ * FORMAT       = Report format (json or csv)
+ * REPORT_FILE  = Local report file name
+ * PREFIX_DEPTH = Number of levels of the prefixes aggregated (optional, default 1)
+ * CONCURRENCY  = Number of containers aggregated at the same time (optional, default 8)
  */
 
 package example;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.StorageMetadata;
@@ -25,9 +33,27 @@ public class BlobStoreListAll {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the connections
+
+    private static final int DEFAULT_PREFIX_DEPTH = 1;  // Default levels of the prefixes aggregated
+    private static final int DEFAULT_CONCURRENCY = 8;   // Default containers aggregated at the same time
 
     public static void main(String[] args) throws IOException {
 
+        if (args.length > 0) {
+            if (!"usage".equals(args[0]) || args.length < 3
+                    || !("json".equals(args[1]) || "csv".equals(args[1]))) {
+                System.out.println("Wrong parameters.\nProper Usage is:\n"
+                        + "  java -jar blobstorelistall.jar\n"
+                        + "  java -jar blobstorelistall.jar usage <json|csv> <REPORT_FILE> [<PREFIX_DEPTH>] [<CONCURRENCY>]");
+                System.exit(1);
+            }
+            usage(args[1], args[2],
+                    args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PREFIX_DEPTH,
+                    args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CONCURRENCY);
+            return;
+        }
+
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
@@ -80,6 +106,8 @@ public class BlobStoreListAll {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Connections
+        configuration = prop;
     }
 
 
@@ -88,7 +116,7 @@ public class BlobStoreListAll {
      */
     private static void listAllBlobStore(String provider, String identity, String credential) {
         // Init
-        BlobStoreContext context = ContextBuilder.newBuilder(provider)
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
                 .credentials(identity, credential)
                 .buildView(BlobStoreContext.class);
 
@@ -108,5 +136,84 @@ public class BlobStoreListAll {
         // Disconnect
         context.close();
     }
-}
 
+
+    /**
+     * Write a usage report of all containers in every provider
+     */
+    private static void usage(String format, String reportFileName, int prefixDepth, int concurrency) {
+
+        System.out.println("Report format:    " + format);
+        System.out.println("Report file name: " + reportFileName);
+        System.out.println("Prefix depth:     " + prefixDepth);
+        System.out.println("Concurrency:      " + concurrency);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // The containers are aggregated in parallel
+        BlobStoreConnections.configure(configuration, true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        usageBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                format, reportFileName + ".aws", prefixDepth, concurrency);
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        usageBlobStore("azureblob", azureAccountName, azureAccountKey,
+                format, reportFileName + ".azure", prefixDepth, concurrency);
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        usageBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                format, reportFileName + ".gcloud", prefixDepth, concurrency);
+    }
+
+
+    /**
+     * Aggregate the usage of all containers in BlobStore and write the report
+     */
+    private static void usageBlobStore(String provider, String identity, String credential,
+                                       String format, String reportFileName, int prefixDepth, int concurrency) {
+        // Init
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+
+        System.out.printf("Aggregating the usage of all containers in BlobStore on \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+
+        long start = System.currentTimeMillis();
+        try (PrintWriter out = new PrintWriter(reportFileName, "UTF-8")) {
+            List<BlobStoreUsage.ContainerUsage> usages = new BlobStoreUsage(blobStore, prefixDepth, concurrency).aggregate();
+            if ("csv".equals(format)) {
+                BlobStoreUsage.writeCsv(provider, usages, out);
+            } else {
+                BlobStoreUsage.writeJson(provider, usages, out);
+            }
+            System.out.printf("Aggregated %d containers in %d ms.\n", usages.size(), System.currentTimeMillis() - start);
+            System.out.println("Report File: " + reportFileName);
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Aggregation interrupted!!");
+        } catch (ExecutionException | RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            BlobStoreConnections.printStatistics(provider);
+
+            // Disconnect
+            context.close();
+        }
+    }
+}
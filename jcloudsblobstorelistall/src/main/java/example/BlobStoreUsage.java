@@ -0,0 +1,258 @@
+/**
+ * BlobStoreUsage aggregates the usage of BlobStore containers.
+ * Every container is listed page by page and the Blobs are added to counters (number of Blobs,
+ * total bytes and a size histogram) for the container and for every prefix, so no Blob is kept
+ * in memory. The containers are aggregated in parallel and the report is written as JSON or CSV.
+ */
+
+package example;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.ListContainerOptions;
+
+
+public class BlobStoreUsage {
+
+    private static final String DELIMITER = "/";        // Delimiter of the prefixes
+
+    // Upper bounds of the size histogram buckets, the last bucket has no upper bound
+    private static final long[] HISTOGRAM_BOUNDS = {
+            1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20,
+            1L << 22, 1L << 24, 1L << 26, 1L << 28, 1L << 30, 1L << 32 };
+
+
+    /**
+     * Usage counters of a container or a prefix
+     */
+    public static class Counters {
+        long objects = 0;
+        long bytes = 0;
+        final long[] histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+
+        void add(long size) {
+            objects++;
+            bytes += size;
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BOUNDS.length && size >= HISTOGRAM_BOUNDS[bucket]) {
+                bucket++;
+            }
+            histogram[bucket]++;
+        }
+    }
+
+
+    /**
+     * Usage of a container and its prefixes
+     */
+    public static class ContainerUsage {
+        final String name;
+        final Counters total = new Counters();
+        final Map<String, Counters> prefixes = new TreeMap<>();
+        String error = null;
+
+        ContainerUsage(String name) {
+            this.name = name;
+        }
+    }
+
+
+    private final BlobStore blobStore;
+    private final int prefixDepth;
+    private final int concurrency;
+
+
+    public BlobStoreUsage(BlobStore blobStore, int prefixDepth, int concurrency) {
+        this.blobStore = blobStore;
+        this.prefixDepth = prefixDepth;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+
+    /**
+     * Aggregate the usage of all the containers in the BlobStore, in parallel
+     */
+    public List<ContainerUsage> aggregate() throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<ContainerUsage>> futures = new ArrayList<>();
+            for (StorageMetadata resourceMd : blobStore.list()) {
+                String containerName = resourceMd.getName();
+                futures.add(executor.submit(() -> aggregate(containerName)));
+            }
+            List<ContainerUsage> usages = new ArrayList<>();
+            for (Future<ContainerUsage> future : futures) {
+                usages.add(future.get());
+            }
+            return usages;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Aggregate the usage of a container, listing it page by page
+     */
+    public ContainerUsage aggregate(String containerName) {
+        ContainerUsage usage = new ContainerUsage(containerName);
+        try {
+            ListContainerOptions options = ListContainerOptions.Builder.recursive();
+            String marker = null;
+            do {
+                if (marker != null) {
+                    options.afterMarker(marker);
+                }
+                PageSet<? extends StorageMetadata> page = blobStore.list(containerName, options);
+                for (StorageMetadata resourceMd : page) {
+                    if (resourceMd.getType() == StorageType.BLOB) {
+                        long size = resourceMd.getSize() == null ? 0 : resourceMd.getSize();
+                        usage.total.add(size);
+                        if (prefixDepth > 0) {
+                            usage.prefixes.computeIfAbsent(prefix(resourceMd.getName()), p -> new Counters()).add(size);
+                        }
+                    }
+                }
+                marker = page.getNextMarker();
+            } while (marker != null);
+        } catch (RuntimeException e) {
+            // Report the containers that can not be listed without stopping the others
+            usage.error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        return usage;
+    }
+
+
+    /**
+     * Get the prefix of a Blob name with a maximum number of levels, Blobs in the root have an empty prefix
+     */
+    private String prefix(String name) {
+        int end = 0;
+        for (int level = 0; level < prefixDepth; level++) {
+            int next = name.indexOf(DELIMITER, end);
+            if (next < 0) {
+                break;
+            }
+            end = next + DELIMITER.length();
+        }
+        return name.substring(0, end);
+    }
+
+
+    /**
+     * Write the usage report as JSON
+     */
+    public static void writeJson(String provider, List<ContainerUsage> usages, PrintWriter out) {
+        out.println("{");
+        out.printf("  \"provider\": %s,\n", quote(provider));
+        out.printf("  \"histogramBounds\": %s,\n", histogramJson(HISTOGRAM_BOUNDS));
+        out.println("  \"containers\": [");
+        for (int i = 0; i < usages.size(); i++) {
+            ContainerUsage usage = usages.get(i);
+            out.printf("    {\"name\": %s, %s", quote(usage.name), countersJson(usage.total));
+            if (usage.error != null) {
+                out.printf(", \"error\": %s", quote(usage.error));
+            }
+            out.print(", \"prefixes\": [");
+            int j = 0;
+            for (Map.Entry<String, Counters> prefix : usage.prefixes.entrySet()) {
+                out.printf("%s\n      {\"prefix\": %s, %s}", j++ == 0 ? "" : ",",
+                        quote(prefix.getKey()), countersJson(prefix.getValue()));
+            }
+            out.printf("%s]}%s\n", j == 0 ? "" : "\n    ", i < usages.size() - 1 ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+
+    /**
+     * Write the usage report as CSV, with a row for every container and for every prefix
+     */
+    public static void writeCsv(String provider, List<ContainerUsage> usages, PrintWriter out) {
+        StringBuilder header = new StringBuilder("provider,container,prefix,objects,bytes");
+        for (long bound : HISTOGRAM_BOUNDS) {
+            header.append(",lt_").append(bound);
+        }
+        header.append(",ge_").append(HISTOGRAM_BOUNDS[HISTOGRAM_BOUNDS.length - 1]).append(",error");
+        out.println(header);
+        for (ContainerUsage usage : usages) {
+            // The container total has no prefix column
+            out.println(csvRow(provider, usage.name, "", usage.total, usage.error));
+            for (Map.Entry<String, Counters> prefix : usage.prefixes.entrySet()) {
+                out.println(csvRow(provider, usage.name, prefix.getKey().isEmpty() ? DELIMITER : prefix.getKey(),
+                        prefix.getValue(), null));
+            }
+        }
+    }
+
+
+    private static String countersJson(Counters counters) {
+        return String.format("\"objects\": %d, \"bytes\": %d, \"histogram\": %s",
+                counters.objects, counters.bytes, histogramJson(counters.histogram));
+    }
+
+
+    private static String histogramJson(long[] values) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(values[i]);
+        }
+        return json.append("]").toString();
+    }
+
+
+    private static String csvRow(String provider, String container, String prefix, Counters counters, String error) {
+        StringBuilder row = new StringBuilder()
+                .append(csv(provider)).append(',')
+                .append(csv(container)).append(',')
+                .append(csv(prefix)).append(',')
+                .append(counters.objects).append(',')
+                .append(counters.bytes);
+        for (long value : counters.histogram) {
+            row.append(',').append(value);
+        }
+        return row.append(',').append(error == null ? "" : csv(error)).toString();
+    }
+
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+
+    private static String quote(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * BlobStoreExamples runs the operations of the upload, download, list and delete examples against the
+ * stand-in server, so the load test measures their own code (retries, rate limits, connections, context
+ * startup) and not only the jclouds API.
+ *  - Isolation: every example is a separate application with its own copy of jclouds and of the helper
+ *    classes, its jar is loaded in a class loader of its own that does not see the classes of the load test.
+ *  - Endpoint: the examples send the requests of the "aws-s3" provider to the stand-in server with the
+ *    jclouds s3 API (endpoint_aws-s3 and endpoint_aws-s3_api properties of their connections).
+ *  - Output: the messages printed by the examples are written to a file or discarded.
+ * Every operation builds, uses and closes a context of the provider, as the example does from its command line.
+ * Configuration properties (all optional):
+ *  - loadtest_upload_jar     = Jar of the upload example
+ *  - loadtest_download_jar   = Jar of the download example
+ *  - loadtest_list_jar       = Jar of the list example
+ *  - loadtest_deleteblob_jar = Jar of the delete blob example
+ *  - loadtest_output_file    = File where the messages of the examples are written (discarded if empty)
+ * The other properties (Ex.: retry_*, rate_limit_*) are given to the examples.
+ */
+
+package example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreExamples implements Closeable {
+
+    private static final String PROVIDER = "aws-s3";    // Provider of the examples sent to the stand-in server
+
+    // Jars of the examples, built with "mvn package" in their folders
+    private static final String DEFAULT_UPLOAD_JAR = "../jcloudsblobstoreupload/target/jclouds-blobstore-upload-1.0.0.jar";
+    private static final String DEFAULT_DOWNLOAD_JAR = "../jcloudsblobstoredownload/target/jclouds-blobstore-download-1.0.0.jar";
+    private static final String DEFAULT_LIST_JAR = "../jcloudsblobstorelist/target/jclouds-blobstore-list-1.0.0.jar";
+    private static final String DEFAULT_DELETEBLOB_JAR = "../jcloudsblobstoredeleteblob/target/jclouds-blobstore-delete-blob-1.0.0.jar";
+
+    /**
+     * Operation of an example, a public static method of its main class
+     */
+    private static class Operation {
+        final String example;
+        final String className;
+        final String methodName;
+        final String jarFile;
+
+        Operation(String example, String className, String methodName, String jarFile) {
+            this.example = example;
+            this.className = className;
+            this.methodName = methodName;
+            this.jarFile = jarFile;
+        }
+    }
+
+
+    private final Properties configuration;
+    private final PrintStream output;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, Method> methods = new ConcurrentHashMap<>();
+    private final List<URLClassLoader> classLoaders = new ArrayList<>();
+
+
+    private BlobStoreExamples(Properties configuration, PrintStream output) {
+        this.configuration = configuration;
+        this.output = output;
+    }
+
+
+    /**
+     * Get the examples from the configuration properties, their requests are sent to an endpoint
+     */
+    public static BlobStoreExamples fromProperties(Properties prop, String endpoint) throws IOException {
+        Properties configuration = new Properties();
+        configuration.putAll(prop);
+        configuration.setProperty("endpoint_" + PROVIDER, endpoint);
+        configuration.setProperty("endpoint_" + PROVIDER + "_api", "s3");
+        // Only the HTTPS connections are counted and the stand-in server is HTTP
+        configuration.setProperty("connection_stats", "false");
+
+        String outputFile = prop.getProperty("loadtest_output_file", "").trim();
+        PrintStream output = outputFile.isEmpty()
+                ? new PrintStream(ByteStreams.nullOutputStream())
+                : new PrintStream(new FileOutputStream(outputFile), true);
+
+        BlobStoreExamples examples = new BlobStoreExamples(configuration, output);
+        examples.add(new Operation("upload", "example.BlobStoreUpload", "upload",
+                prop.getProperty("loadtest_upload_jar", DEFAULT_UPLOAD_JAR).trim()));
+        examples.add(new Operation("download", "example.BlobStoreDownload", "download",
+                prop.getProperty("loadtest_download_jar", DEFAULT_DOWNLOAD_JAR).trim()));
+        examples.add(new Operation("list", "example.BlobStoreList", "list",
+                prop.getProperty("loadtest_list_jar", DEFAULT_LIST_JAR).trim()));
+        examples.add(new Operation("delete", "example.BlobStoreDeleteBlob", "deleteBlob",
+                prop.getProperty("loadtest_deleteblob_jar", DEFAULT_DELETEBLOB_JAR).trim()));
+        return examples;
+    }
+
+
+    private void add(Operation operation) {
+        operations.put(operation.example, operation);
+    }
+
+
+    /**
+     * Load the example of an operation before the test, so a missing jar stops the test
+     */
+    public void load(String example) throws IOException {
+        method(example);
+    }
+
+
+    /**
+     * Get the stream where the messages of the examples are printed while the test is running
+     */
+    public PrintStream output() {
+        return output;
+    }
+
+
+    /**
+     * Upload a local file with the upload example
+     */
+    public void upload(String containerName, String blobName, File localFile) throws IOException {
+        call("upload", containerName, blobName, localFile.getPath());
+    }
+
+
+    /**
+     * Download a Blob to a local file with the download example
+     */
+    public void download(String containerName, String blobName, File localFile) throws IOException {
+        call("download", containerName, blobName, localFile.getPath());
+    }
+
+
+    /**
+     * List the Blobs of a container with the list example, without the parallel listing
+     */
+    public void list(String containerName) throws IOException {
+        call("list", containerName, 0);
+    }
+
+
+    /**
+     * Delete a Blob with the delete blob example
+     */
+    public void delete(String containerName, String blobName) throws IOException {
+        call("delete", containerName, blobName);
+    }
+
+
+    /**
+     * Call the operation of an example with the configuration, the provider and the credentials of the
+     * stand-in server, the example reports a failure by returning false
+     */
+    private void call(String example, Object... args) throws IOException {
+        Method method = method(example);
+        Object[] parameters = new Object[args.length + 4];
+        parameters[0] = configuration;
+        parameters[1] = PROVIDER;
+        parameters[2] = BlobStoreStandIn.IDENTITY;
+        parameters[3] = BlobStoreStandIn.CREDENTIAL;
+        System.arraycopy(args, 0, parameters, 4, args.length);
+
+        // jclouds finds its providers and APIs with the context class loader
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(method.getDeclaringClass().getClassLoader());
+        try {
+            if (!Boolean.TRUE.equals(method.invoke(null, parameters))) {
+                throw new IOException("The " + example + " example failed");
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+
+    /**
+     * Get the method of an operation, the jar of the example is loaded the first time
+     */
+    private Method method(String example) throws IOException {
+        Method method = methods.get(example);
+        if (method != null) {
+            return method;
+        }
+        synchronized (this) {
+            method = methods.get(example);
+            if (method == null) {
+                Operation operation = operations.get(example);
+                File jar = new File(operation.jarFile);
+                if (!jar.isFile()) {
+                    throw new FileNotFoundException("Jar of the " + example + " example not found: " + jar
+                            + ", build it with mvn package in its folder");
+                }
+                // The parent is the class loader of the JDK classes, the classes of the load test are not seen
+                URLClassLoader classLoader = new URLClassLoader(new URL[] { jar.toURI().toURL() },
+                        ClassLoader.getSystemClassLoader().getParent());
+                classLoaders.add(classLoader);
+                try {
+                    Class<?> exampleClass = Class.forName(operation.className, true, classLoader);
+                    for (Method candidate : exampleClass.getMethods()) {
+                        if (candidate.getName().equals(operation.methodName)
+                                && Modifier.isStatic(candidate.getModifiers())) {
+                            method = candidate;
+                        }
+                    }
+                } catch (ClassNotFoundException e) {
+                    throw new FileNotFoundException("Class " + operation.className + " not found in " + jar);
+                }
+                if (method == null) {
+                    throw new IOException("The jar " + jar + " has no " + operation.methodName
+                            + " operation, build it again with mvn package in its folder");
+                }
+                methods.put(example, method);
+            }
+            return method;
+        }
+    }
+
+
+    /**
+     * Close the class loaders of the examples and the file of their messages
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (URLClassLoader classLoader : classLoaders) {
+            classLoader.close();
+        }
+        output.close();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * BlobStoreLoadGenerator sends requests to a BlobStore at a target rate and measures their latency.
+ * The load is open: the requests are started on a fixed schedule, whatever the time taken by the
+ * previous ones, and the latency of a request is measured from its scheduled start. A slow BlobStore
+ * makes the requests wait for a free thread and that time is part of the latency, so the percentiles
+ * are not hidden by the load generator slowing down.
+ * The operations are mixed by weight: every operation gets a number of slots in a cycle and the
+ * request N runs the operation of the slot N modulo the cycle length.
+ */
+
+package example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class BlobStoreLoadGenerator {
+
+    private static final double[] PERCENTILES = { 0.50, 0.90, 0.99, 0.999 };  // Latency percentiles reported
+
+    /**
+     * Request to the BlobStore, the index is the number of the request in the test
+     */
+    public interface Request {
+        void run(long index) throws IOException;
+    }
+
+
+    /**
+     * Latency samples and errors of an operation
+     */
+    private static class Statistics {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long errors = 0;
+        String lastError = null;
+
+        synchronized void success(long latencyNanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+        }
+
+        synchronized void error(Exception e) {
+            errors++;
+            lastError = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+    }
+
+
+    private final Map<String, Request> requests = new LinkedHashMap<>();
+    private final Map<String, Statistics> statistics = new LinkedHashMap<>();
+    private final List<String> cycle = new ArrayList<>();
+
+    private long elapsedNanos = 0;
+    private long maxScheduleLagNanos = 0;
+
+
+    /**
+     * Add an operation with its weight in the mix of operations
+     */
+    public void add(String name, int weight, Request request) {
+        requests.put(name, request);
+        statistics.put(name, new Statistics());
+        for (int i = 0; i < weight; i++) {
+            cycle.add(name);
+        }
+    }
+
+
+    /**
+     * Get the operation run by a request
+     */
+    public String operation(long index) {
+        return cycle.get((int) (index % cycle.size()));
+    }
+
+
+    /**
+     * Send some requests of every operation before the test, so the latency of the first requests
+     * (connections, class loading, JIT compilation) is not measured
+     */
+    public void warmUp(int requestsPerOperation) {
+        for (Map.Entry<String, Request> entry : requests.entrySet()) {
+            for (long index = 0; index < requestsPerOperation; index++) {
+                try {
+                    entry.getValue().run(index);
+                } catch (IOException | RuntimeException e) {
+                    // Errors are only counted during the test
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Send the requests at a target rate during some time and wait for all of them to finish
+     */
+    public void run(double requestsPerSecond, long durationSeconds, int concurrency) throws InterruptedException {
+        long total = (long) (requestsPerSecond * durationSeconds);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        long start = System.nanoTime();
+        try {
+            for (long index = 0; index < total; index++) {
+                final long requestIndex = index;
+                final long scheduled = start + index * intervalNanos;
+                long waitNanos = scheduled - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                } else {
+                    maxScheduleLagNanos = Math.max(maxScheduleLagNanos, -waitNanos);
+                }
+                final String name = operation(index);
+                executor.execute(() -> {
+                    Statistics stats = statistics.get(name);
+                    try {
+                        requests.get(name).run(requestIndex);
+                        stats.success(System.nanoTime() - scheduled);
+                    } catch (IOException | RuntimeException e) {
+                        stats.error(e);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+
+    /**
+     * Print the throughput, errors and latency percentiles of every operation
+     */
+    public void printReport() {
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        StringBuilder header = new StringBuilder(String.format("%-15s %9s %7s %9s",
+                "Operation", "Requests", "Errors", "Req/s"));
+        for (double percentile : PERCENTILES) {
+            header.append(String.format(" %9s", "p" + formatPercentile(percentile)));
+        }
+        header.append(String.format(" %9s", "max"));
+        System.out.println(header + "  (latency in ms)");
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            Statistics stats = entry.getValue();
+            long[] samples;
+            synchronized (stats) {
+                samples = Arrays.copyOf(stats.latencies, stats.count);
+            }
+            if (samples.length == 0 && stats.errors == 0) {
+                continue;
+            }
+            Arrays.sort(samples);
+            StringBuilder line = new StringBuilder(String.format("%-15s %9d %7d %9.1f", entry.getKey(),
+                    samples.length + stats.errors, stats.errors, samples.length / elapsedSeconds));
+            for (double percentile : PERCENTILES) {
+                line.append(String.format(" %9.1f", millis(percentile(samples, percentile))));
+            }
+            line.append(String.format(" %9.1f", millis(samples.length == 0 ? 0 : samples[samples.length - 1])));
+            System.out.println(line);
+            if (stats.lastError != null) {
+                System.out.println("  Last error: " + stats.lastError);
+            }
+        }
+        System.out.printf("Elapsed time: %.1f s, maximum schedule lag: %.1f ms\n",
+                elapsedSeconds, millis(maxScheduleLagNanos));
+    }
+
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1))];
+    }
+
+
+    private static String formatPercentile(double percentile) {
+        String value = String.valueOf(percentile * 100);
+        return value.endsWith(".0") ? value.substring(0, value.length() - 2) : value;
+    }
+
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
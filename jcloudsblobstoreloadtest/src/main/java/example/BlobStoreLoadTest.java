@@ -0,0 +1,298 @@
+/**
+ * BlobStoreLoadTest is an example that handles a BlobStore container.
+ * Load-test the BlobStore operations (upload, download, list and delete Blobs, run by the code of the
+ * other examples) against a local stand-in server that behaves like an S3 bucket on AWS (Amazon Web
+ * Services), with configurable latency, bandwidth and errors, so no cloud account is needed.
+ * Load test mode, you must provide 3 parameters:
+ * OPERATION           = Operation to test (upload/download/hedged-download/list/delete/mixed)
+ * REQUESTS_PER_SECOND = Target rate of requests
+ * DURATION_SECONDS    = Duration of the test
+ * BLOB_SIZE           = Size of the Blobs in bytes (optional)
+ * CONCURRENCY         = Maximum number of requests at the same time (optional)
+ * Server mode, start only the stand-in server to be used by other S3 clients:
+ * server
+ */
+
+package example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.s3.reference.S3Constants;
+
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreLoadTest {
+
+    private static Properties configuration;        // Configuration for the stand-in server and the retries
+
+    private static final List<String> OPERATIONS = Arrays.asList("upload", "download", "hedged-download", "list",
+            "delete", "mixed");
+    private static final String CONTAINER_NAME = "loadtest";   // Container used by the test
+    private static final int DOWNLOAD_BLOBS = 100;              // Blobs created before the test to be downloaded
+    private static final int WARM_UP_REQUESTS = 20;             // Requests of every operation before the test
+    private static final int DEFAULT_BLOB_SIZE = 64*1024;       // Default size of the Blobs
+    private static final int DEFAULT_CONCURRENCY = 16;          // Default maximum requests at the same time
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length > 0 && "server".equals(args[0])) {
+            server();
+            return;
+        }
+
+        if (args.length < 3 || !OPERATIONS.contains(args[0])) {
+            System.out.println("Not enough parameters.\nProper Usage is:\n"
+                    + "  java -jar blobstoreloadtest.jar <upload|download|hedged-download|list|delete|mixed> "
+                    + "<REQUESTS_PER_SECOND> <DURATION_SECONDS> [<BLOB_SIZE>] [<CONCURRENCY>]\n"
+                    + "  java -jar blobstoreloadtest.jar server");
+            System.exit(1);
+        }
+
+        // The operation to test
+        String operation = args[0];
+        // The target rate of requests
+        double requestsPerSecond = Double.parseDouble(args[1]);
+        // The duration of the test
+        long durationSeconds = Long.parseLong(args[2]);
+        // The size of the Blobs
+        int blobSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BLOB_SIZE;
+        // The maximum number of requests at the same time
+        int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CONCURRENCY;
+
+        System.out.println("Operation:           " + operation);
+        System.out.println("Requests per second: " + requestsPerSecond);
+        System.out.println("Duration (seconds):  " + durationSeconds);
+        System.out.println("Blob size:           " + blobSize);
+        System.out.println("Concurrency:         " + concurrency);
+
+        // Load Configuration from a file
+        loadConfiguration();
+
+        loadTestBlobStore(operation, requestsPerSecond, durationSeconds, blobSize, concurrency);
+    }
+
+
+    /**
+     * Load Configuration from a file
+     */
+    private static void loadConfiguration() {
+
+        // The configuration is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        configuration = prop;
+    }
+
+
+    /**
+     * Start the stand-in server and wait until the application is stopped
+     */
+    private static void server() {
+        loadConfiguration();
+
+        BlobStoreStandIn standIn = BlobStoreStandIn.fromProperties(configuration);
+        try {
+            standIn.start();
+            System.out.println("Identity:   " + BlobStoreStandIn.IDENTITY);
+            System.out.println("Credential: " + BlobStoreStandIn.CREDENTIAL);
+            System.out.println("Press Enter to stop the server.");
+            System.in.read();
+            standIn.printStatistics();
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            stop(standIn);
+        }
+    }
+
+
+    /**
+     * Run a load test of a BlobStore operation against the stand-in server
+     */
+    private static void loadTestBlobStore(String operation, double requestsPerSecond, long durationSeconds,
+                                          int blobSize, int concurrency) {
+        BlobStoreStandIn standIn = BlobStoreStandIn.fromProperties(configuration);
+        BlobStoreExamples examples = null;
+        BlobStoreContext context = null;
+        BlobStoreRetry retry = null;
+        File directory = null;
+        try {
+            standIn.start();
+
+            // The upload, download, list and delete operations are run by the examples
+            examples = BlobStoreExamples.fromProperties(configuration, standIn.endpoint());
+            final BlobStoreExamples operations = examples;
+
+            // Local files of the uploads and the downloads
+            directory = Files.createTempDirectory("loadtest").toFile();
+            final File localDirectory = directory;
+            byte[] content = new byte[blobSize];
+            new Random().nextBytes(content);
+            File uploadFile = new File(directory, "upload");
+            Files.write(uploadFile.toPath(), content);
+
+            BlobStoreLoadGenerator generator = new BlobStoreLoadGenerator();
+            if ("upload".equals(operation) || "mixed".equals(operation)) {
+                examples.load("upload");
+                generator.add("upload", 2, index ->
+                        operations.upload(CONTAINER_NAME, "upload/blob-" + index, uploadFile));
+            }
+            if ("download".equals(operation) || "mixed".equals(operation)) {
+                examples.load("download");
+                generator.add("download", 6, index -> {
+                    File localFile = new File(localDirectory, "download-" + index);
+                    try {
+                        operations.download(CONTAINER_NAME, "download/blob-" + index % DOWNLOAD_BLOBS, localFile);
+                    } finally {
+                        localFile.delete();
+                    }
+                });
+            }
+            if ("hedged-download".equals(operation)) {
+                // A run of the download example sends a single request with a new latency window, so it never
+                // reaches hedge_min_samples: the Blobs are read into memory as in the download example, with
+                // the retries and the latency window shared by all the requests of the test
+                Properties retryConfiguration = new Properties();
+                retryConfiguration.putAll(configuration);
+                retryConfiguration.setProperty("hedge_enabled", "true");
+                retry = BlobStoreRetry.fromProperties(retryConfiguration);
+                final BlobStoreRetry hedgedRetry = retry;
+
+                // Init, the stand-in is an S3 endpoint with path-style bucket names
+                Properties overrides = new Properties();
+                overrides.setProperty(S3Constants.PROPERTY_S3_VIRTUAL_HOST_BUCKETS, "false");
+                context = ContextBuilder.newBuilder("s3")
+                        .endpoint(standIn.endpoint())
+                        .credentials(BlobStoreStandIn.IDENTITY, BlobStoreStandIn.CREDENTIAL)
+                        .overrides(overrides)
+                        .buildView(BlobStoreContext.class);
+
+                // Instantiate a BlobStore
+                BlobStore blobStore = context.getBlobStore();
+
+                generator.add("hedged-download", 1, index -> hedgedRetry.callHedged("download", () -> {
+                    Blob blob = blobStore.getBlob(CONTAINER_NAME, "download/blob-" + index % DOWNLOAD_BLOBS);
+                    if (blob == null) {
+                        throw new IOException("Blob not found");
+                    }
+                    try (InputStream in = blob.getPayload().openStream()) {
+                        return ByteStreams.toByteArray(in);
+                    }
+                }, bytes -> { }));
+            }
+            if ("list".equals(operation) || "mixed".equals(operation)) {
+                examples.load("list");
+                generator.add("list", 1, index -> operations.list(CONTAINER_NAME));
+            }
+            if ("delete".equals(operation) || "mixed".equals(operation)) {
+                examples.load("delete");
+                generator.add("delete", 1, index -> operations.delete(CONTAINER_NAME, "delete/blob-" + index));
+            }
+
+            // Create the Blobs used by the test directly in the backend, without the injected faults
+            System.out.println("Preparing the container ...");
+            BlobStore backend = standIn.backend();
+            backend.createContainerInLocation(null, CONTAINER_NAME);
+            long total = (long) (requestsPerSecond * durationSeconds);
+            for (int i = 0; i < DOWNLOAD_BLOBS; i++) {
+                backend.putBlob(CONTAINER_NAME, backend.blobBuilder("download/blob-" + i).payload(content).build());
+            }
+
+            // The messages of the examples are not mixed with the report
+            PrintStream console = System.out;
+            System.out.println("Warming up ...");
+            System.setOut(examples.output());
+            try {
+                generator.warmUp(WARM_UP_REQUESTS);
+
+                // The Blobs to delete are created after the warm-up, that could delete them
+                for (long index = 0; index < total; index++) {
+                    if ("delete".equals(generator.operation(index))) {
+                        backend.putBlob(CONTAINER_NAME,
+                                backend.blobBuilder("delete/blob-" + index).payload(content).build());
+                    }
+                }
+
+                console.printf("Sending %d requests ...\n", total);
+                generator.run(requestsPerSecond, durationSeconds, concurrency);
+            } finally {
+                System.setOut(console);
+            }
+            generator.printReport();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            if (retry != null) {
+                retry.printStatistics("stand-in");
+                retry.close();
+            }
+            standIn.printStatistics();
+            // Disconnect
+            if (context != null) {
+                context.close();
+            }
+            if (examples != null) {
+                close(examples);
+            }
+            if (directory != null) {
+                delete(directory);
+            }
+            stop(standIn);
+        }
+    }
+
+
+    private static void close(BlobStoreExamples examples) {
+        try {
+            examples.close();
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        }
+    }
+
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+
+    private static void stop(BlobStoreStandIn standIn) {
+        try {
+            standIn.stop();
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
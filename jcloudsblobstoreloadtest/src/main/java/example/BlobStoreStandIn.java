@@ -0,0 +1,335 @@
+/**
+ * BlobStoreStandIn is a local stand-in for a cloud BlobStore.
+ * An embedded S3-compatible server (S3Proxy) is started on the loopback interface, backed by the
+ * jclouds "transient" (in memory) or "filesystem" BlobStore, so the examples can be load-tested
+ * without a cloud account. Every request to the backend goes through a fault injector that adds
+ * latency, limits the bandwidth and fails some requests like a busy provider does.
+ * Configuration properties (all optional):
+ *  - standin_port                       = Port of the server (0 = any free port)
+ *  - standin_backend                    = Backend BlobStore (transient/filesystem)
+ *  - standin_basedir                    = Base directory of the filesystem backend
+ *  - standin_latency_ms                 = Latency added to every request
+ *  - standin_latency_jitter_ms          = Random latency added to every request, up to this value
+ *  - standin_bandwidth_bytes_per_second = Bandwidth shared by all the requests (0 = unlimited)
+ *  - standin_error_rate                 = Fraction of the requests failed with 500 Internal Error
+ *  - standin_throttle_rate              = Fraction of the requests failed with 503 Slow Down
+ */
+
+package example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gaul.s3proxy.AuthenticationType;
+import org.gaul.s3proxy.S3Proxy;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.filesystem.reference.FilesystemConstants;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.MutableContentMetadata;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+
+import com.google.common.io.ByteStreams;
+
+
+public class BlobStoreStandIn {
+
+    public static final String IDENTITY = "local-identity";         // Access key of the stand-in
+    public static final String CREDENTIAL = "local-credential";     // Secret key of the stand-in
+
+    private static final String HOST = "127.0.0.1";                 // The stand-in is only reachable locally
+
+    // Methods of the BlobStore that do not send a request to the provider
+    private static final Set<String> LOCAL_METHODS = new HashSet<>(Arrays.asList(
+            "getContext", "blobBuilder", "getConsistencyModel", "getMinimumMultipartPartSize",
+            "getMaximumMultipartPartSize", "getMaximumNumberOfParts",
+            "equals", "hashCode", "toString"));
+
+    private final int port;
+    private final String backend;
+    private final String baseDir;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final long bandwidthBytesPerSecond;
+    private final double errorRate;
+    private final double throttleRate;
+
+    private BlobStoreContext backendContext;
+    private BlobStore backendBlobStore;
+    private S3Proxy s3Proxy;
+
+    private long bandwidthNextFreeNanos = 0;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedThrottles = new AtomicLong();
+
+
+    public BlobStoreStandIn(int port, String backend, String baseDir, long latencyMillis, long latencyJitterMillis,
+                            long bandwidthBytesPerSecond, double errorRate, double throttleRate) {
+        this.port = port;
+        this.backend = backend;
+        this.baseDir = baseDir;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+    }
+
+
+    /**
+     * Get the stand-in configuration from the configuration properties
+     */
+    public static BlobStoreStandIn fromProperties(Properties prop) {
+        return new BlobStoreStandIn(
+                Integer.parseInt(prop.getProperty("standin_port", "0").trim()),
+                prop.getProperty("standin_backend", "transient").trim(),
+                prop.getProperty("standin_basedir", "standin").trim(),
+                Long.parseLong(prop.getProperty("standin_latency_ms", "0").trim()),
+                Long.parseLong(prop.getProperty("standin_latency_jitter_ms", "0").trim()),
+                Long.parseLong(prop.getProperty("standin_bandwidth_bytes_per_second", "0").trim()),
+                Double.parseDouble(prop.getProperty("standin_error_rate", "0").trim()),
+                Double.parseDouble(prop.getProperty("standin_throttle_rate", "0").trim()));
+    }
+
+
+    /**
+     * Start the backend BlobStore and the S3-compatible server
+     */
+    public void start() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty(FilesystemConstants.PROPERTY_BASEDIR, baseDir);
+        backendContext = ContextBuilder.newBuilder(backend)
+                .overrides(overrides)
+                .buildView(BlobStoreContext.class);
+        backendBlobStore = backendContext.getBlobStore();
+
+        s3Proxy = S3Proxy.builder()
+                .blobStore(faultInjector(backendBlobStore))
+                .endpoint(URI.create("http://" + HOST + ":" + port))
+                .awsAuthentication(AuthenticationType.AWS_V2_OR_V4, IDENTITY, CREDENTIAL)
+                .build();
+        s3Proxy.start();
+        while (!"STARTED".equals(s3Proxy.getState())) {
+            Thread.sleep(10);
+        }
+        System.out.printf("Stand-in server started on \"%s\" (backend \"%s\", latency %d+%d ms, bandwidth %s, "
+                        + "error rate %.3f, throttle rate %.3f)\n",
+                endpoint(), backend, latencyMillis, latencyJitterMillis,
+                bandwidthBytesPerSecond > 0 ? bandwidthBytesPerSecond + " bytes/s" : "unlimited",
+                errorRate, throttleRate);
+    }
+
+
+    /**
+     * Get the endpoint of the S3-compatible server
+     */
+    public String endpoint() {
+        return "http://" + HOST + ":" + s3Proxy.getPort();
+    }
+
+
+    /**
+     * Get the backend BlobStore, without the fault injection, used to prepare the data of a test
+     */
+    public BlobStore backend() {
+        return backendBlobStore;
+    }
+
+
+    /**
+     * Print the statistics of the requests received by the stand-in
+     */
+    public void printStatistics() {
+        System.out.printf("Stand-in server: %d requests, %d injected errors, %d injected throttles\n",
+                requests.get(), injectedErrors.get(), injectedThrottles.get());
+    }
+
+
+    /**
+     * Stop the S3-compatible server and the backend BlobStore
+     */
+    public void stop() throws Exception {
+        if (s3Proxy != null) {
+            s3Proxy.stop();
+        }
+        if (backendContext != null) {
+            backendContext.close();
+        }
+    }
+
+
+    /**
+     * Wrap a BlobStore so every request has the configured latency, bandwidth and errors
+     */
+    private BlobStore faultInjector(final BlobStore blobStore) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (LOCAL_METHODS.contains(method.getName())) {
+                return invoke(blobStore, method, args);
+            }
+            requests.incrementAndGet();
+            injectLatency();
+            injectError(args);
+            if (bandwidthBytesPerSecond > 0 && args != null) {
+                // Uploaded content: putBlob(container, blob, ...) and uploadMultipartPart(upload, part, payload)
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i] instanceof Blob) {
+                        Blob blob = (Blob) args[i];
+                        blob.setPayload(limit(blob.getPayload()));
+                    } else if (args[i] instanceof Payload) {
+                        args[i] = limit((Payload) args[i]);
+                    }
+                }
+            }
+            Object result = invoke(blobStore, method, args);
+            if (bandwidthBytesPerSecond > 0 && result instanceof Blob && ((Blob) result).getPayload() != null) {
+                // Downloaded content: getBlob(container, name, ...)
+                Blob blob = (Blob) result;
+                blob.setPayload(limit(blob.getPayload()));
+            }
+            return result;
+        };
+        return (BlobStore) Proxy.newProxyInstance(BlobStore.class.getClassLoader(),
+                new Class<?>[] { BlobStore.class }, handler);
+    }
+
+
+    private static Object invoke(BlobStore blobStore, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(blobStore, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    private void injectLatency() throws InterruptedException {
+        long delay = latencyMillis;
+        if (latencyJitterMillis > 0) {
+            delay += ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+
+    private void injectError(Object[] args) throws IOException {
+        double random = ThreadLocalRandom.current().nextDouble();
+        if (random >= throttleRate + errorRate) {
+            return;
+        }
+        // The error is sent after the uploaded content is read, like a provider does. An unread request
+        // body leaves the client writing to a connection nobody reads until the idle timeout
+        discardUploads(args);
+        if (random < throttleRate) {
+            injectedThrottles.incrementAndGet();
+            throw new HttpResponseException("Injected throttle", null,
+                    HttpResponse.builder().statusCode(503).message("Slow Down").build());
+        }
+        injectedErrors.incrementAndGet();
+        throw new HttpResponseException("Injected error", null,
+                HttpResponse.builder().statusCode(500).message("Internal Error").build());
+    }
+
+
+    /**
+     * Read and close the uploaded content of a request: putBlob(container, blob, ...) and
+     * uploadMultipartPart(upload, part, payload)
+     */
+    private static void discardUploads(Object[] args) throws IOException {
+        if (args == null) {
+            return;
+        }
+        for (Object arg : args) {
+            Payload payload = arg instanceof Blob ? ((Blob) arg).getPayload()
+                    : arg instanceof Payload ? (Payload) arg : null;
+            if (payload != null) {
+                try (InputStream in = payload.openStream()) {
+                    ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Limit the bandwidth of a payload, keeping its content metadata
+     */
+    private Payload limit(Payload payload) throws IOException {
+        MutableContentMetadata contentMetadata = payload.getContentMetadata();
+        Payload limited = Payloads.newInputStreamPayload(new BandwidthInputStream(payload.openStream()));
+        limited.setContentMetadata(contentMetadata);
+        return limited;
+    }
+
+
+    /**
+     * Reserve the transfer of some bytes in the shared bandwidth and get the time when it ends
+     */
+    private synchronized long reserveBandwidth(int bytes) {
+        long now = System.nanoTime();
+        bandwidthNextFreeNanos = Math.max(bandwidthNextFreeNanos, now)
+                + TimeUnit.SECONDS.toNanos(bytes) / bandwidthBytesPerSecond;
+        return bandwidthNextFreeNanos;
+    }
+
+
+    /**
+     * Stream that waits after every read until the shared bandwidth has transferred the bytes read
+     */
+    private class BandwidthInputStream extends FilterInputStream {
+
+        BandwidthInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                transfer(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readLen = super.read(b, off, len);
+            if (readLen > 0) {
+                transfer(readLen);
+            }
+            return readLen;
+        }
+
+        private void transfer(int bytes) throws IOException {
+            long waitNanos = reserveBandwidth(bytes) - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while limiting the bandwidth");
+                }
+            }
+        }
+    }
+}
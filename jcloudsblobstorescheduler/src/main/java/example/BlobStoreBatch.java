@@ -0,0 +1,357 @@
+/**
+ * BlobStoreBatch runs the operations of a manifest and records them in a journal, so a batch
+ * stopped in the middle (crash, kill, network down) can be run again and only the operations
+ * not finished are repeated.
+ *  - Manifest: a CSV file, or a JSONL file (extension .jsonl or .json), with one operation per line.
+ *    CSV columns: operation,provider,container,blob,file,priority (file is empty for delete,
+ *    priority is optional, a first line starting with "operation" is a header).
+ *    JSONL fields: {"operation": ..., "provider": ..., "container": ..., "blob": ..., "file": ..., "priority": ...}
+ *  - Journal: an append-only local file with one JSON line for every finished operation, synced
+ *    to disk before the next one is recorded. The operations done in the journal are skipped,
+ *    the failed ones are run again. An incomplete last line (crash while writing) is ignored.
+ *  - Progress: operations done, failed and pending, throughput and the estimated time to finish.
+ */
+
+package example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+
+public class BlobStoreBatch {
+
+    private static final int DEFAULT_PRIORITY = 5;      // Priority of the operations without priority
+    private static final List<String> OPERATIONS = Arrays.asList("upload", "download", "delete");
+
+    /**
+     * Operation of the manifest
+     */
+    public static class Entry {
+        final int priority;
+        final String operation;
+        final String provider;
+        final String containerName;
+        final String blobName;
+        final String localFileName;
+
+        Entry(int priority, String operation, String provider, String containerName, String blobName,
+              String localFileName) {
+            this.priority = priority;
+            this.operation = operation;
+            this.provider = provider;
+            this.containerName = containerName;
+            this.blobName = blobName;
+            this.localFileName = localFileName;
+        }
+
+        /**
+         * Get the fields that identify the operation in the journal, the priority is not one of them
+         */
+        List<String> key() {
+            return Arrays.asList(operation, provider, containerName, blobName,
+                    localFileName == null ? "" : localFileName);
+        }
+
+        /**
+         * Get the provider of the operation
+         */
+        public String provider() {
+            return provider;
+        }
+    }
+
+
+    private final File journalFile;
+    private final Set<List<String>> done = new HashSet<>();
+    private final Map<BlobStoreTransferScheduler.Job, Entry> running = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private FileOutputStream journal;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long started;
+    private ScheduledExecutorService reporter;
+
+
+    /**
+     * Open the journal of a batch, reading the operations already done
+     */
+    public BlobStoreBatch(String journalFileName) throws IOException {
+        this.journalFile = new File(journalFileName);
+        this.timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        int ignored = 0;
+        if (journalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    try {
+                        JsonObject record = new JsonParser().parse(line).getAsJsonObject();
+                        if ("done".equals(string(record, "status"))) {
+                            done.add(Arrays.asList(string(record, "operation"), string(record, "provider"),
+                                    string(record, "container"), string(record, "blob"), string(record, "file")));
+                        }
+                    } catch (JsonParseException | IllegalStateException e) {
+                        ignored++;
+                    }
+                }
+            }
+        }
+        System.out.printf("Journal: %d operations done%s\n", done.size(),
+                ignored > 0 ? ", " + ignored + " incomplete lines ignored" : "");
+    }
+
+
+    /**
+     * Read the operations of a manifest, the lines with errors are shown and skipped
+     */
+    public static List<Entry> readManifest(String manifestFileName) throws IOException {
+        boolean json = manifestFileName.endsWith(".jsonl") || manifestFileName.endsWith(".json");
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifestFileName), StandardCharsets.UTF_8))) {
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (line.trim().isEmpty() || (!json && lineNumber == 1 && line.startsWith("operation"))) {
+                    continue;
+                }
+                try {
+                    entries.add(json ? parseJson(line) : parseCsv(line));
+                } catch (IllegalArgumentException | JsonParseException | IllegalStateException e) {
+                    System.out.printf("Error: Manifest line %d: %s\n", lineNumber, e.getMessage());
+                }
+            }
+        }
+        return entries;
+    }
+
+
+    /**
+     * Check if an operation is done in the journal
+     */
+    public boolean isDone(Entry entry) {
+        return done.contains(entry.key());
+    }
+
+
+    /**
+     * Start the batch, the finished operations are recorded in the journal
+     */
+    public void start(BlobStoreTransferScheduler scheduler, long statusSeconds) throws IOException {
+        boolean incompleteLine = false;
+        if (journalFile.length() > 0) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+                file.seek(file.length() - 1);
+                incompleteLine = file.read() != '\n';
+            }
+        }
+        journal = new FileOutputStream(journalFile, true);
+        if (incompleteLine) {
+            // End the line left by a crash, so the next record is not appended to it
+            journal.write('\n');
+        }
+        started = System.nanoTime();
+        scheduler.setListener((job, jobFailed, elapsedMillis) -> {
+            Entry entry = running.remove(job);
+            if (entry != null) {
+                record(entry, jobFailed, elapsedMillis);
+            }
+        });
+        if (statusSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "batch-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> printProgress(scheduler), statusSeconds, statusSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+
+    /**
+     * Queue an operation in the scheduler
+     */
+    public void submit(BlobStoreTransferScheduler scheduler, Entry entry) {
+        BlobStoreTransferScheduler.Job job = new BlobStoreTransferScheduler.Job(entry.priority, entry.operation,
+                entry.provider, entry.containerName, entry.blobName, entry.localFileName);
+        running.put(job, entry);
+        submitted.incrementAndGet();
+        try {
+            scheduler.submit(job);
+        } catch (RuntimeException e) {
+            running.remove(job);
+            submitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Print the operations done, failed and pending, the throughput and the estimated time to finish
+     */
+    public void printProgress(BlobStoreTransferScheduler scheduler) {
+        long finished = succeeded.get() + failed.get();
+        long pending = submitted.get() - finished;
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double rate = finished / seconds;
+        System.out.printf("Batch: %d done, %d failed, %d pending, %.1f operations/s, %.1f MB/s, ETA %s\n",
+                succeeded.get(), failed.get(), pending, rate,
+                scheduler.bytesTransferred() / seconds / (1024 * 1024),
+                finished == 0 ? "unknown" : duration((long) (pending / rate)));
+    }
+
+
+    /**
+     * Stop the progress report, close the journal and print the summary of the batch
+     */
+    public void close(BlobStoreTransferScheduler scheduler) throws IOException {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Batch: %d done, %d failed in %s (%.1f operations/s, %.1f MB/s)\n",
+                succeeded.get(), failed.get(), duration((long) seconds),
+                (succeeded.get() + failed.get()) / seconds, scheduler.bytesTransferred() / seconds / (1024 * 1024));
+        if (failed.get() > 0) {
+            System.out.println("Run the batch again to retry the failed operations.");
+        }
+    }
+
+
+    /**
+     * Append a finished operation to the journal and sync it to disk
+     */
+    private synchronized void record(Entry entry, boolean entryFailed, long elapsedMillis) {
+        (entryFailed ? failed : succeeded).incrementAndGet();
+        JsonObject record = new JsonObject();
+        record.addProperty("time", timeFormat.format(new Date()));
+        record.addProperty("status", entryFailed ? "failed" : "done");
+        record.addProperty("operation", entry.operation);
+        record.addProperty("provider", entry.provider);
+        record.addProperty("container", entry.containerName);
+        record.addProperty("blob", entry.blobName);
+        record.addProperty("file", entry.localFileName == null ? "" : entry.localFileName);
+        record.addProperty("ms", elapsedMillis);
+        try {
+            journal.write((gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+            journal.getFD().sync();
+        } catch (IOException e) {
+            System.out.println("Error: Journal not written: " + e.getMessage());
+        }
+    }
+
+
+    private static Entry parseJson(String line) {
+        JsonObject object = new JsonParser().parse(line).getAsJsonObject();
+        String priority = string(object, "priority");
+        return entry(priority.isEmpty() ? null : priority, string(object, "operation"), string(object, "provider"),
+                string(object, "container"), string(object, "blob"), string(object, "file"));
+    }
+
+
+    private static Entry parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() < 4) {
+            throw new IllegalArgumentException("Not enough fields in \"" + line + "\"");
+        }
+        return entry(fields.size() > 5 && !fields.get(5).isEmpty() ? fields.get(5) : null,
+                fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.size() > 4 ? fields.get(4) : "");
+    }
+
+
+    private static Entry entry(String priority, String operation, String provider, String containerName,
+                               String blobName, String localFileName) {
+        if (!OPERATIONS.contains(operation)) {
+            throw new IllegalArgumentException("Unknown operation \"" + operation + "\"");
+        }
+        if (provider.isEmpty() || containerName.isEmpty() || blobName.isEmpty()) {
+            throw new IllegalArgumentException("Missing provider, container or blob");
+        }
+        if (!"delete".equals(operation) && localFileName.isEmpty()) {
+            throw new IllegalArgumentException("Missing local file name");
+        }
+        int value;
+        try {
+            value = priority == null ? DEFAULT_PRIORITY : Integer.parseInt(priority.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid priority \"" + priority + "\"");
+        }
+        return new Entry(value, operation, provider, containerName, blobName,
+                localFileName.isEmpty() ? null : localFileName);
+    }
+
+
+    /**
+     * Split a CSV line, the fields can be quoted and a quote inside a quoted field is doubled
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element == null || element.isJsonNull() ? "" : element.getAsString();
+    }
+
+
+    private static String duration(long seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * BlobStoreScheduler is an example that handles BlobStore containers.
+ * Run a list of upload, download and delete jobs with priorities in several cloud providers:
+ *  - S3 bucket on AWS (Amazon Web Services)
+ *  - Blob Storage container on Microsoft Azure
+ *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * The jobs share a global budget of connections and bandwidth, large Blobs are split into parts
+ * and the queue depth and the waiting times are reported.
+ * You must provide 1 parameter:
+ * JOBS_FILE = File with one job per line, or - to read the jobs from the standard input
+ * Every job is a line with the fields separated by spaces:
+ * PRIORITY OPERATION PROVIDER CONTAINER_NAME BLOB_NAME [LOCAL_FILE_NAME]
+ *  - PRIORITY        = Priority of the job, a lower number runs first (0 = the most urgent)
+ *  - OPERATION       = upload, download or delete
+ *  - PROVIDER        = aws-s3, azureblob or google-cloud-storage
+ *  - LOCAL_FILE_NAME = Local file name (upload and download)
+ * Batch mode, run the operations of a manifest and record them in a journal, you must provide 3 parameters:
+ * batch
+ * MANIFEST_FILE = CSV or JSONL file with one operation per line
+ * JOURNAL_FILE  = Local journal of the finished operations, the operations done are skipped on a restart
+ */
+
+package example;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jclouds.blobstore.BlobStoreContext;
+
+
+public class BlobStoreScheduler {
+
+    private static String awsAccessKeyId;           // AWS Access Key ID
+    private static String awsSecretKey;             // AWS Secret Key
+    private static String azureAccountName;         // Azure Storage Account Name
+    private static String azureAccountKey;          // Azure Storage Account Key
+    private static String gcloudClientEmail;        // Google Cloud Client email
+    private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the scheduler, the retries and the connections
+
+    private static final List<String> OPERATIONS = Arrays.asList("upload", "download", "delete");
+
+    // Context and retries of every provider used by the jobs
+    private static final Map<String, BlobStoreContext> contexts = new LinkedHashMap<>();
+    private static final Map<String, BlobStoreRetry> retries = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length > 0 && "batch".equals(args[0])) {
+            batch(args);
+            return;
+        }
+
+        if (args.length < 1) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorescheduler.jar <JOBS_FILE>");
+            System.exit(1);
+        }
+
+        // The file with the jobs
+        String jobsFileName = args[0];
+
+        System.out.println("Jobs file: " + jobsFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        BlobStoreTransferScheduler scheduler = newScheduler();
+        scheduler.printStatusEvery(statusSeconds());
+        try (InputStream is = "-".equals(jobsFileName) ? System.in : new FileInputStream(jobsFileName);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            // The jobs are queued while they are read, so they can be added through a pipe
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    BlobStoreTransferScheduler.Job job = parseJob(line);
+                    register(scheduler, job.provider);
+                    scheduler.submit(job);
+                } catch (RuntimeException e) {
+                    System.out.printf("Error: Line %d: %s\n", lineNumber, e.getMessage());
+                }
+            }
+
+            scheduler.awaitCompletion();
+            scheduler.printStatistics();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } finally {
+            close(scheduler);
+        }
+    }
+
+
+    /**
+     * Run the operations of a manifest that are not done in the journal
+     */
+    private static void batch(String[] args) {
+
+        if (args.length < 3) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstorescheduler.jar batch <MANIFEST_FILE> <JOURNAL_FILE>");
+            System.exit(1);
+        }
+
+        // The file with the operations
+        String manifestFileName = args[1];
+        // The journal of the finished operations
+        String journalFileName = args[2];
+
+        System.out.println("Manifest file: " + manifestFileName);
+        System.out.println("Journal file:  " + journalFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        BlobStoreTransferScheduler scheduler = newScheduler();
+        BlobStoreBatch batch = null;
+        try {
+            List<BlobStoreBatch.Entry> entries = BlobStoreBatch.readManifest(manifestFileName);
+            batch = new BlobStoreBatch(journalFileName);
+            List<BlobStoreBatch.Entry> pending = new ArrayList<>();
+            for (BlobStoreBatch.Entry entry : entries) {
+                if (!batch.isDone(entry)) {
+                    pending.add(entry);
+                }
+            }
+            System.out.printf("Manifest: %d operations, %d done in the journal, %d to run\n",
+                    entries.size(), entries.size() - pending.size(), pending.size());
+
+            batch.start(scheduler, statusSeconds());
+            for (BlobStoreBatch.Entry entry : pending) {
+                try {
+                    register(scheduler, entry.provider());
+                    batch.submit(scheduler, entry);
+                } catch (RuntimeException e) {
+                    System.out.println("Error: " + e.getMessage());
+                }
+            }
+
+            scheduler.awaitCompletion();
+            scheduler.printStatistics();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } finally {
+            if (batch != null) {
+                try {
+                    batch.close(scheduler);
+                } catch (IOException e) {
+                    System.out.println("Error: IO Exception: " + e.getMessage());
+                }
+            }
+            close(scheduler);
+        }
+    }
+
+
+    /**
+     * Load Configuration from a file and get the authentication credentials for every provider
+     */
+    private static void loadConfiguration() {
+
+        // The connection string is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        // AWS
+        awsAccessKeyId = prop.getProperty("aws_access_key_id");
+        awsSecretKey = prop.getProperty("aws_secret_access_key");
+        // Azure
+        azureAccountName = prop.getProperty("azure_account_name");
+        azureAccountKey = prop.getProperty("azure_account_key");
+        // Google Cloud
+        gcloudClientEmail = prop.getProperty("gcloud_client_email");
+        gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Scheduler, retries and connections
+        configuration = prop;
+    }
+
+
+    /**
+     * Create the scheduler from the configuration properties
+     */
+    private static BlobStoreTransferScheduler newScheduler() {
+        // The jobs are run in parallel
+        BlobStoreConnections.configure(configuration, true);
+
+        int maxConnections = Integer.parseInt(configuration.getProperty("scheduler_max_connections", "16").trim());
+        double bytesPerSecond = Double.parseDouble(configuration.getProperty("scheduler_bytes_per_second", "0").trim());
+        long partSize = Long.parseLong(configuration.getProperty("scheduler_part_size", "33554432").trim());
+
+        System.out.println("Connections:      " + maxConnections);
+        System.out.println("Bytes per second: " + (bytesPerSecond > 0 ? String.valueOf((long) bytesPerSecond) : "unlimited"));
+        System.out.println("Part size:        " + partSize);
+
+        return new BlobStoreTransferScheduler(maxConnections, bytesPerSecond, partSize);
+    }
+
+
+    private static long statusSeconds() {
+        return Long.parseLong(configuration.getProperty("scheduler_status_seconds", "10").trim());
+    }
+
+
+    /**
+     * Stop the scheduler and close the contexts of the providers
+     */
+    private static void close(BlobStoreTransferScheduler scheduler) {
+        scheduler.close();
+        for (Map.Entry<String, BlobStoreContext> entry : contexts.entrySet()) {
+            BlobStoreRetry retry = retries.get(entry.getKey());
+            retry.printStatistics(entry.getKey());
+            BlobStoreConnections.printStatistics(entry.getKey());
+            retry.close();
+
+            // Disconnect
+            entry.getValue().close();
+        }
+    }
+
+
+    /**
+     * Parse a line of the jobs file
+     */
+    private static BlobStoreTransferScheduler.Job parseJob(String line) {
+        String[] fields = line.split("\\s+");
+        if (fields.length < 5) {
+            throw new IllegalArgumentException("Not enough fields in \"" + line + "\"");
+        }
+        String operation = fields[1];
+        if (!OPERATIONS.contains(operation)) {
+            throw new IllegalArgumentException("Unknown operation \"" + operation + "\"");
+        }
+        if (!"delete".equals(operation) && fields.length < 6) {
+            throw new IllegalArgumentException("Missing local file name in \"" + line + "\"");
+        }
+        int priority;
+        try {
+            priority = Integer.parseInt(fields[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid priority \"" + fields[0] + "\"");
+        }
+        return new BlobStoreTransferScheduler.Job(priority, operation, fields[2], fields[3], fields[4],
+                fields.length > 5 ? fields[5] : null);
+    }
+
+
+    /**
+     * Build the context of a provider the first time it is used by a job and add it to the scheduler
+     */
+    private static void register(BlobStoreTransferScheduler scheduler, String provider) {
+        if (contexts.containsKey(provider)) {
+            return;
+        }
+        String identity;
+        String credential;
+        switch (provider) {
+            // ******************** AWS S3 provider ********************
+            case "aws-s3":
+                identity = awsAccessKeyId;
+                credential = awsSecretKey;
+                break;
+            // ******************** Azure Blob Storage provider ********************
+            case "azureblob":
+                identity = azureAccountName;
+                credential = azureAccountKey;
+                break;
+            // ******************** Google Cloud Storage provider ********************
+            case "google-cloud-storage":
+                identity = gcloudClientEmail;
+                credential = gcloudPrivateKey;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown provider \"" + provider + "\"");
+        }
+
+        // Init
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+        contexts.put(provider, context);
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        retries.put(provider, retry);
+
+        // Instantiate a BlobStore
+        scheduler.register(provider, context.getBlobStore(), retry);
+    }
+}
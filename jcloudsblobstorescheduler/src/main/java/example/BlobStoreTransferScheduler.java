@@ -0,0 +1,609 @@
+/**
+ * BlobStoreTransferScheduler runs upload, download and delete jobs on several cloud providers
+ * with priorities and a global budget.
+ *  - Priorities: the parts of the jobs wait in a priority queue and the part with the lowest
+ *    priority number runs first, so urgent jobs do not wait behind bulk transfers.
+ *  - Fairness: large Blobs are split into parts (multipart uploads and ranged downloads) and every
+ *    part of a job gets the next round of its priority. A job submitted later starts in the current
+ *    round, so small Blobs interleave with the parts of large ones instead of waiting for them.
+ *  - Budget: a fixed number of connections (worker threads) and one bandwidth limit are shared by
+ *    all the providers.
+ *  - Metrics: the queue depth and the time waited by the parts and the jobs of every priority.
+ */
+
+package example;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+
+public class BlobStoreTransferScheduler {
+
+    private static final int COPY_BUFFER_SIZE = 64*1024;     // Buffer to write the downloaded parts
+
+    /**
+     * Upload, download or delete of a Blob
+     */
+    public static class Job {
+        final int priority;
+        final String operation;
+        final String provider;
+        final String containerName;
+        final String blobName;
+        final File localFile;
+
+        long id;
+        long submitted;
+        long firstStarted;
+        long partSize;
+        String eTag;                // Version of a Blob downloaded by parts
+        int parts = 1;
+        volatile boolean failed = false;
+        MultipartUpload multipartUpload;
+        final List<MultipartPart> uploadedParts = new ArrayList<>();
+        final AtomicInteger remainingParts = new AtomicInteger(1);
+
+        public Job(int priority, String operation, String provider, String containerName, String blobName,
+                   String localFileName) {
+            this.priority = priority;
+            this.operation = operation;
+            this.provider = provider;
+            this.containerName = containerName;
+            this.blobName = blobName;
+            this.localFile = localFileName == null ? null : new File(localFileName);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Job %d (%s \"%s\" %s/%s, priority %d)",
+                    id, operation, provider, containerName, blobName, priority);
+        }
+    }
+
+
+    /**
+     * Receive the jobs when they are finished
+     */
+    public interface Listener {
+        void finished(Job job, boolean failed, long elapsedMillis);
+    }
+
+
+    /**
+     * Part of a job waiting for a connection
+     */
+    private static class Task {
+        final Job job;
+        final int partNumber;       // 0 = the whole Blob or the first request of a download
+        final long offset;
+        final long length;
+        final long round;
+        final long sequence;
+        final long enqueued = System.nanoTime();
+
+        Task(Job job, int partNumber, long offset, long length, long round, long sequence) {
+            this.job = job;
+            this.partNumber = partNumber;
+            this.offset = offset;
+            this.length = length;
+            this.round = round;
+            this.sequence = sequence;
+        }
+    }
+
+
+    /**
+     * Queue depth and waiting times of a priority
+     */
+    private static class PriorityStatistics {
+        final AtomicInteger depth = new AtomicInteger();
+        int maxDepth = 0;
+        long parts = 0;
+        long partWaitNanos = 0;
+        long maxPartWaitNanos = 0;
+        long jobs = 0;
+        long failedJobs = 0;
+        long jobWaitNanos = 0;
+        long jobTimeNanos = 0;
+
+        synchronized void enqueued() {
+            maxDepth = Math.max(maxDepth, depth.incrementAndGet());
+        }
+
+        synchronized void started(long waitNanos) {
+            depth.decrementAndGet();
+            parts++;
+            partWaitNanos += waitNanos;
+            maxPartWaitNanos = Math.max(maxPartWaitNanos, waitNanos);
+        }
+
+        synchronized void finished(boolean failed, long waitNanos, long timeNanos) {
+            jobs++;
+            if (failed) {
+                failedJobs++;
+            }
+            jobWaitNanos += waitNanos;
+            jobTimeNanos += timeNanos;
+        }
+    }
+
+
+    private final int maxConnections;
+    private final long partSize;
+    private final BlobStoreRateLimiter bandwidth;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>(64,
+            Comparator.<Task>comparingInt(task -> task.job.priority)
+                    .thenComparingLong(task -> task.round)
+                    .thenComparingLong(task -> task.sequence));
+    private final ExecutorService workers;
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scheduler-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, BlobStore> blobStores = new ConcurrentHashMap<>();
+    private final Map<String, BlobStoreRetry> retries = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> rounds = new ConcurrentHashMap<>();
+    private final Map<Integer, PriorityStatistics> statistics = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final long started = System.nanoTime();
+    private int pendingJobs = 0;
+    private volatile Listener listener;
+
+
+    public BlobStoreTransferScheduler(int maxConnections, double bytesPerSecond, long partSize) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.partSize = partSize;
+        this.bandwidth = new BlobStoreRateLimiter(0, bytesPerSecond);
+        this.workers = Executors.newFixedThreadPool(this.maxConnections, runnable -> {
+            Thread thread = new Thread(runnable, "scheduler-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < this.maxConnections; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+
+    /**
+     * Add a provider where the jobs can run
+     */
+    public void register(String provider, BlobStore blobStore, BlobStoreRetry retry) {
+        blobStores.put(provider, blobStore);
+        retries.put(provider, retry);
+    }
+
+
+    /**
+     * Set the listener of the finished jobs
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Get the bytes uploaded and downloaded
+     */
+    public long bytesTransferred() {
+        return bytes.get();
+    }
+
+
+    /**
+     * Print the queue depth and the throughput every some seconds (0 = never)
+     */
+    public void printStatusEvery(long seconds) {
+        if (seconds > 0) {
+            reporter.scheduleAtFixedRate(this::printStatus, seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+
+    /**
+     * Queue a job, a large Blob is split into parts that wait in the queue with the other jobs
+     */
+    public void submit(Job job) {
+        BlobStore blobStore = blobStores.get(job.provider);
+        if (blobStore == null) {
+            throw new IllegalArgumentException("Unknown provider \"" + job.provider + "\"");
+        }
+        job.id = jobIds.incrementAndGet();
+        job.submitted = System.nanoTime();
+        synchronized (this) {
+            pendingJobs++;
+        }
+        long round = rounds.computeIfAbsent(job.priority, p -> new AtomicLong()).get();
+
+        if ("upload".equals(job.operation)) {
+            if (!job.localFile.isFile()) {
+                partDone(job, "Local file does not exist!!");
+                return;
+            }
+            long size = job.localFile.length();
+            job.partSize = partSize(blobStore, size);
+            if (size > job.partSize) {
+                // Multipart upload, one task for every part
+                job.parts = (int) ((size + job.partSize - 1) / job.partSize);
+                job.remainingParts.set(job.parts);
+                for (int part = 1; part <= job.parts; part++) {
+                    long offset = (part - 1) * job.partSize;
+                    enqueue(new Task(job, part, offset, Math.min(job.partSize, size - offset),
+                            round + part - 1, sequence.incrementAndGet()));
+                }
+                return;
+            }
+            enqueue(new Task(job, 0, 0, size, round, sequence.incrementAndGet()));
+        } else {
+            // The size of a download is known after its first request
+            job.partSize = partSize(blobStore, 0);
+            enqueue(new Task(job, 0, 0, 0, round, sequence.incrementAndGet()));
+        }
+    }
+
+
+    /**
+     * Wait until all the jobs submitted are finished
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (pendingJobs > 0) {
+            wait();
+        }
+    }
+
+
+    /**
+     * Print the current queue depth of every priority, the busy connections and the throughput
+     */
+    public void printStatus() {
+        StringBuilder depths = new StringBuilder();
+        int total = 0;
+        for (Map.Entry<Integer, PriorityStatistics> entry : new TreeMap<>(statistics).entrySet()) {
+            int depth = entry.getValue().depth.get();
+            total += depth;
+            depths.append(depths.length() == 0 ? "" : ", ").append("priority ").append(entry.getKey())
+                    .append(": ").append(depth);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Queue: %d parts waiting (%s), %d/%d connections busy, %.1f MB/s\n",
+                total, depths, active.get(), maxConnections, bytes.get() / seconds / (1024 * 1024));
+    }
+
+
+    /**
+     * Print the jobs, the parts and the time waited in the queue for every priority
+     */
+    public void printStatistics() {
+        System.out.printf("%-8s %6s %6s %6s %9s %12s %12s %12s %12s\n", "Priority", "Jobs", "Failed", "Parts",
+                "Max queue", "Part wait", "Max wait", "Job wait", "Job time");
+        for (Map.Entry<Integer, PriorityStatistics> entry : new TreeMap<>(statistics).entrySet()) {
+            PriorityStatistics stats = entry.getValue();
+            synchronized (stats) {
+                System.out.printf("%-8d %6d %6d %6d %9d %9d ms %9d ms %9d ms %9d ms\n", entry.getKey(),
+                        stats.jobs, stats.failedJobs, stats.parts, stats.maxDepth,
+                        average(stats.partWaitNanos, stats.parts), TimeUnit.NANOSECONDS.toMillis(stats.maxPartWaitNanos),
+                        average(stats.jobWaitNanos, stats.jobs), average(stats.jobTimeNanos, stats.jobs));
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Transferred %d bytes in %.1f s (%.1f MB/s)\n",
+                bytes.get(), seconds, bytes.get() / seconds / (1024 * 1024));
+        bandwidth.printStatistics("all providers");
+    }
+
+
+    /**
+     * Stop the workers and the status report
+     */
+    public void close() {
+        reporter.shutdownNow();
+        workers.shutdownNow();
+    }
+
+
+    private long partSize(BlobStore blobStore, long size) {
+        long result = Math.max(partSize, blobStore.getMinimumMultipartPartSize());
+        // Bigger parts when the Blob has more parts than allowed by the provider
+        long maxParts = blobStore.getMaximumNumberOfParts();
+        if (maxParts > 0 && size > result * maxParts) {
+            result = (size + maxParts - 1) / maxParts;
+        }
+        return Math.min(result, blobStore.getMaximumMultipartPartSize());
+    }
+
+
+    private void enqueue(Task task) {
+        statistics.computeIfAbsent(task.job.priority, p -> new PriorityStatistics()).enqueued();
+        queue.add(task);
+    }
+
+
+    /**
+     * Take the next part from the queue and run it, while the scheduler is open
+     */
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Job job = task.job;
+            long now = System.nanoTime();
+            statistics.get(job.priority).started(now - task.enqueued);
+            // The jobs submitted from now on start in the round of this part
+            rounds.get(job.priority).accumulateAndGet(task.round, Math::max);
+            synchronized (job) {
+                if (job.firstStarted == 0) {
+                    job.firstStarted = now;
+                }
+            }
+            if (job.failed) {
+                // Another part of the job failed
+                partDone(job, null);
+                continue;
+            }
+            active.incrementAndGet();
+            try {
+                run(task);
+                partDone(job, null);
+            } catch (IOException | RuntimeException e) {
+                partDone(job, e.getMessage() == null ? e.toString() : e.getMessage());
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+
+    private void run(Task task) throws IOException {
+        Job job = task.job;
+        BlobStore blobStore = blobStores.get(job.provider);
+        BlobStoreRetry retry = retries.get(job.provider);
+        switch (job.operation) {
+            case "upload":
+                if (task.partNumber == 0) {
+                    ByteSource payload = bandwidth.limit(Files.asByteSource(job.localFile));
+                    Blob blob = blobStore.blobBuilder(job.blobName)
+                            .payload(payload)
+                            .contentLength(task.length)
+                            .build();
+                    retry.call("putBlob", () -> blobStore.putBlob(job.containerName, blob));
+                } else {
+                    uploadPart(task, blobStore, retry);
+                }
+                bytes.addAndGet(task.length);
+                break;
+            case "download":
+                if (task.partNumber == 0) {
+                    downloadFirst(task, blobStore, retry);
+                } else {
+                    downloadPart(task, blobStore, retry);
+                }
+                break;
+            case "delete":
+                retry.call("removeBlob", () -> {
+                    blobStore.removeBlob(job.containerName, job.blobName);
+                    return null;
+                });
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation \"" + job.operation + "\"");
+        }
+    }
+
+
+    private void uploadPart(Task task, BlobStore blobStore, BlobStoreRetry retry) throws IOException {
+        Job job = task.job;
+        MultipartUpload multipartUpload;
+        synchronized (job) {
+            if (job.multipartUpload == null) {
+                BlobMetadata metadata = blobStore.blobBuilder(job.blobName).build().getMetadata();
+                job.multipartUpload = retry.call("initiateMultipartUpload",
+                        () -> blobStore.initiateMultipartUpload(job.containerName, metadata, new PutOptions()));
+            }
+            multipartUpload = job.multipartUpload;
+        }
+        ByteSource slice = Files.asByteSource(job.localFile).slice(task.offset, task.length);
+        MultipartPart part = retry.call("uploadMultipartPart", () -> {
+            Payload payload = Payloads.newByteSourcePayload(bandwidth.limit(slice));
+            payload.getContentMetadata().setContentLength(task.length);
+            return blobStore.uploadMultipartPart(multipartUpload, task.partNumber, payload);
+        });
+        synchronized (job) {
+            job.uploadedParts.add(part);
+        }
+    }
+
+
+    /**
+     * Download a small Blob, or get the size of a large one and queue its parts
+     */
+    private void downloadFirst(Task task, BlobStore blobStore, BlobStoreRetry retry) throws IOException {
+        Job job = task.job;
+        BlobMetadata metadata = retry.call("blobMetadata",
+                () -> blobStore.blobMetadata(job.containerName, job.blobName));
+        if (metadata == null) {
+            throw new IOException("Blob does not exist!!");
+        }
+        Long contentLength = metadata.getContentMetadata().getContentLength();
+        long size = contentLength == null ? 0 : contentLength;
+        if (size <= job.partSize) {
+            retry.call("getBlob", () -> {
+                Blob blob = blobStore.getBlob(job.containerName, job.blobName);
+                if (blob == null) {
+                    throw new IOException("Blob does not exist!!");
+                }
+                try (InputStream in = bandwidth.limit(blob.getPayload().openStream());
+                     OutputStream out = new FileOutputStream(job.localFile)) {
+                    return ByteStreams.copy(in, out);
+                }
+            });
+            bytes.addAndGet(size);
+            return;
+        }
+
+        // Ranged download, the parts are written in place in the local file and they are requested with
+        // the ETag of the Blob, so a Blob replaced while it is downloaded fails instead of mixing versions
+        job.eTag = metadata.getETag();
+        try (RandomAccessFile file = new RandomAccessFile(job.localFile, "rw")) {
+            file.setLength(size);
+        }
+        int parts = (int) ((size + job.partSize - 1) / job.partSize);
+        synchronized (job) {
+            job.parts = parts + 1;
+        }
+        // The first task counts as one part, so the job is not finished before the parts are queued
+        job.remainingParts.addAndGet(parts);
+        for (int part = 1; part <= parts; part++) {
+            long offset = (part - 1) * job.partSize;
+            enqueue(new Task(job, part, offset, Math.min(job.partSize, size - offset),
+                    task.round + part, sequence.incrementAndGet()));
+        }
+    }
+
+
+    private void downloadPart(Task task, BlobStore blobStore, BlobStoreRetry retry) throws IOException {
+        Job job = task.job;
+        GetOptions options = GetOptions.Builder.range(task.offset, task.offset + task.length - 1);
+        if (job.eTag != null) {
+            options.ifETagMatches(job.eTag);
+        }
+        retry.call("getBlob", () -> {
+            Blob blob = blobStore.getBlob(job.containerName, job.blobName, options);
+            if (blob == null) {
+                throw new IOException("Blob does not exist!!");
+            }
+            try (InputStream in = bandwidth.limit(blob.getPayload().openStream());
+                 RandomAccessFile file = new RandomAccessFile(job.localFile, "rw")) {
+                file.seek(task.offset);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long written = 0;
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    file.write(buffer, 0, n);
+                    written += n;
+                }
+                if (written != task.length) {
+                    throw new IOException(String.format("Part %d: %d bytes expected, %d received",
+                            task.partNumber, task.length, written));
+                }
+                return written;
+            }
+        });
+        bytes.addAndGet(task.length);
+    }
+
+
+    /**
+     * Count a finished part, the last part of a job completes it
+     */
+    private void partDone(Job job, String error) {
+        if (error != null) {
+            boolean firstError;
+            synchronized (job) {
+                firstError = !job.failed;
+                job.failed = true;
+            }
+            if (firstError) {
+                System.out.printf("Error: %s: %s\n", job, error);
+            }
+        }
+        if (job.remainingParts.decrementAndGet() > 0) {
+            return;
+        }
+        if (job.multipartUpload != null) {
+            try {
+                completeMultipartUpload(job);
+            } catch (IOException | RuntimeException e) {
+                job.failed = true;
+                System.out.printf("Error: %s: %s\n", job, e.getMessage());
+            }
+        }
+        finish(job);
+    }
+
+
+    /**
+     * Complete the multipart upload of a job, or abort it if a part failed
+     */
+    private void completeMultipartUpload(Job job) throws IOException {
+        BlobStore blobStore = blobStores.get(job.provider);
+        BlobStoreRetry retry = retries.get(job.provider);
+        if (job.failed) {
+            retry.call("abortMultipartUpload", () -> {
+                blobStore.abortMultipartUpload(job.multipartUpload);
+                return null;
+            });
+            return;
+        }
+        List<MultipartPart> parts = new ArrayList<>(job.uploadedParts);
+        parts.sort(Comparator.comparingInt(MultipartPart::partNumber));
+        retry.call("completeMultipartUpload", () -> blobStore.completeMultipartUpload(job.multipartUpload, parts));
+    }
+
+
+    /**
+     * Record the end of a job
+     */
+    private void finish(Job job) {
+        long now = System.nanoTime();
+        boolean failed = job.failed;
+        long waitNanos = (job.firstStarted == 0 ? now : job.firstStarted) - job.submitted;
+        statistics.computeIfAbsent(job.priority, p -> new PriorityStatistics())
+                .finished(failed, waitNanos, now - job.submitted);
+        if (!failed) {
+            System.out.printf("%s: done in %d ms (%d parts, waited %d ms)\n", job,
+                    TimeUnit.NANOSECONDS.toMillis(now - job.submitted), job.parts,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+        if (listener != null) {
+            listener.finished(job, failed, TimeUnit.NANOSECONDS.toMillis(now - job.submitted));
+        }
+        synchronized (this) {
+            pendingJobs--;
+            notifyAll();
+        }
+    }
+
+
+    private static long average(long totalNanos, long count) {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+}
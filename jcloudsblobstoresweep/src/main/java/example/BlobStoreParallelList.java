@@ -0,0 +1,359 @@
+/**
+ * BlobStoreParallelList lists the Blobs in a BlobStore container in parallel.
+ * The keyspace is split in shards that are listed concurrently and the results are merged in key order:
+ *  - The prefixes with a small listing (one page with the delimiter) are split by their common prefixes, again
+ *    until there are enough shards. The Blobs of the page between two common prefixes are one shard.
+ *  - The prefixes with a large listing (flat keyspaces or many common prefixes) are split by key ranges: the
+ *    boundaries are the prefix followed by every character of the Blob names, the empty ranges are found with a
+ *    request of one key and the rest are split again until there are enough shards. Every range is listed from
+ *    its start key with a marker. Only AWS S3 (and the local providers of jclouds) accept any key as a marker,
+ *    in Azure and Google Cloud Storage a large prefix is listed as one shard.
+ * Only the pages being listed are kept in memory, not the Blobs of the container.
+ */
+
+package example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.providers.ProviderMetadata;
+
+
+public class BlobStoreParallelList {
+
+    private static final String DELIMITER = "/";        // Delimiter used to find the common prefixes
+    private static final int SHARDS_PER_THREAD = 4;     // Shards wanted for every thread
+    private static final int MAX_SPLIT_DEPTH = 3;       // Maximum levels of prefixes or key ranges split
+    private static final int MAX_QUEUED_PAGES = 4;      // Pages kept in memory for every shard
+
+    // Characters after the boundaries of the key ranges, in key order
+    private static final String BOUNDARY_CHARS = "-./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    // APIs that accept any key as the marker of a listing (start after)
+    private static final List<String> START_AFTER_APIS = Arrays.asList("s3", "filesystem", "transient");
+
+    private final BlobStore blobStore;
+    private final String containerName;
+    private final int concurrency;
+    private final boolean startAfter;
+
+    private int shardCount = 0;
+
+
+    public BlobStoreParallelList(BlobStore blobStore, String containerName, int concurrency) {
+        this.blobStore = blobStore;
+        this.containerName = containerName;
+        this.concurrency = Math.max(1, concurrency);
+        ProviderMetadata provider = blobStore.getContext().unwrap().getProviderMetadata();
+        this.startAfter = "aws-s3".equals(provider.getId())
+                || START_AFTER_APIS.contains(provider.getApiMetadata().getId());
+    }
+
+
+    /**
+     * Get the number of shards listed in parallel
+     */
+    public int shardCount() {
+        return shardCount;
+    }
+
+
+    /**
+     * List all the Blobs in the container in key order
+     */
+    public void list(Consumer<StorageMetadata> consumer) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            int wanted = concurrency * SHARDS_PER_THREAD;
+
+            // Discover the shards: the small prefixes are split by their common prefixes
+            List<Shard> shards = new ArrayList<>();
+            List<String> largePrefixes = new ArrayList<>();
+            List<String> prefixes = new ArrayList<>();
+            prefixes.add("");
+            for (int depth = 0; depth < MAX_SPLIT_DEPTH && !prefixes.isEmpty()
+                    && (depth == 0 || shards.size() + prefixes.size() < wanted); depth++) {
+                List<Future<Discovery>> discovered = new ArrayList<>();
+                for (String prefix : prefixes) {
+                    discovered.add(executor.submit(() -> discover(prefix)));
+                }
+                List<String> subPrefixes = new ArrayList<>();
+                for (int i = 0; i < prefixes.size(); i++) {
+                    Discovery discovery = discovered.get(i).get();
+                    if (discovery == null) {
+                        largePrefixes.add(prefixes.get(i));
+                    } else {
+                        shards.addAll(discovery.runs);
+                        subPrefixes.addAll(discovery.prefixes);
+                    }
+                }
+                prefixes = subPrefixes;
+            }
+            for (String prefix : prefixes) {
+                shards.add(Shard.range(prefix, null, null));
+            }
+
+            // The large prefixes are split by key ranges if the provider can start a listing after any key
+            for (String prefix : largePrefixes) {
+                if (startAfter) {
+                    shards.addAll(splitRanges(prefix, Math.max(2, wanted - shards.size()), executor));
+                } else {
+                    shards.add(Shard.range(prefix, null, null));
+                }
+            }
+            Collections.sort(shards);
+            shardCount = shards.size();
+
+            // List the shards in parallel, the shards are consumed in order and a shard that is
+            // listed before its turn waits when it has filled its queue
+            List<BlockingQueue<List<StorageMetadata>>> queues = new ArrayList<>();
+            List<Future<?>> listings = new ArrayList<>();
+            for (Shard shard : shards) {
+                BlockingQueue<List<StorageMetadata>> queue = new ArrayBlockingQueue<>(MAX_QUEUED_PAGES);
+                queues.add(queue);
+                if (shard.blobs == null) {
+                    listings.add(executor.submit(() -> {
+                        listShard(shard, queue);
+                        return null;
+                    }));
+                } else {
+                    queue.add(shard.blobs);
+                    queue.add(Collections.emptyList());
+                    listings.add(null);
+                }
+            }
+            for (int i = 0; i < shards.size(); i++) {
+                List<StorageMetadata> page;
+                while (!(page = take(queues.get(i), listings.get(i))).isEmpty()) {
+                    page.forEach(consumer);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Find the runs of Blobs and the common prefixes under a prefix with one page of the listing,
+     * null if the listing of the prefix has more pages
+     */
+    private Discovery discover(String prefix) {
+        ListContainerOptions options = new ListContainerOptions().delimiter(DELIMITER);
+        if (!prefix.isEmpty()) {
+            options.prefix(prefix);
+        }
+        PageSet<? extends StorageMetadata> page = blobStore.list(containerName, options);
+        if (page.getNextMarker() != null) {
+            return null;
+        }
+        Discovery discovery = new Discovery();
+        List<StorageMetadata> run = new ArrayList<>();
+        for (StorageMetadata resourceMd : page) {
+            if (resourceMd.getType() == StorageType.BLOB) {
+                run.add(resourceMd);
+            } else if (resourceMd.getType() == StorageType.RELATIVE_PATH) {
+                // The Blobs before a common prefix are a shard, so the shards stay in key order
+                if (!run.isEmpty()) {
+                    discovery.runs.add(Shard.run(run));
+                    run = new ArrayList<>();
+                }
+                String subPrefix = resourceMd.getName();
+                if (!subPrefix.endsWith(DELIMITER)) {
+                    subPrefix += DELIMITER;
+                }
+                discovery.prefixes.add(subPrefix);
+            }
+        }
+        if (!run.isEmpty()) {
+            discovery.runs.add(Shard.run(run));
+        }
+        return discovery;
+    }
+
+
+    /**
+     * Split the keyspace of a prefix in key ranges, until there are enough ranges that are not empty
+     */
+    private List<Shard> splitRanges(String prefix, int wanted, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Shard> found = probe(split(Shard.range(prefix, null, null), prefix), executor);
+        for (int depth = 1; depth < MAX_SPLIT_DEPTH && found.size() < wanted; depth++) {
+            // All the keys of a range start with its start key, only the ranges missing are split again
+            // by the next character and the ranges already found are kept in their place
+            int missing = wanted - found.size();
+            List<Shard> ranges = new ArrayList<>();
+            for (Shard range : found) {
+                if (missing > 0 && range.after != null) {
+                    ranges.addAll(probe(split(range, range.after), executor));
+                    missing--;
+                } else {
+                    ranges.add(range);
+                }
+            }
+            found = ranges;
+        }
+        return found;
+    }
+
+
+    /**
+     * Keep the key ranges that are not empty, found with a request of one key for every range
+     */
+    private List<Shard> probe(List<Shard> ranges, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Future<Boolean>> probes = new ArrayList<>();
+        for (Shard range : ranges) {
+            probes.add(executor.submit(() -> hasBlobs(range)));
+        }
+        List<Shard> found = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            if (probes.get(i).get()) {
+                found.add(ranges.get(i));
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Split a key range by the keys made of a start and every boundary character
+     */
+    private static List<Shard> split(Shard range, String start) {
+        List<Shard> ranges = new ArrayList<>();
+        String after = range.after;
+        for (char c : BOUNDARY_CHARS.toCharArray()) {
+            String boundary = start + c;
+            ranges.add(Shard.range(range.prefix, after, boundary));
+            after = boundary;
+        }
+        ranges.add(Shard.range(range.prefix, after, range.upTo));
+        return ranges;
+    }
+
+
+    private boolean hasBlobs(Shard range) {
+        ListContainerOptions options = new ListContainerOptions().recursive().maxResults(1);
+        if (!range.prefix.isEmpty()) {
+            options.prefix(range.prefix);
+        }
+        if (range.after != null) {
+            options.afterMarker(range.after);
+        }
+        for (StorageMetadata resourceMd : blobStore.list(containerName, options)) {
+            return range.upTo == null || resourceMd.getName().compareTo(range.upTo) <= 0;
+        }
+        return false;
+    }
+
+
+    /**
+     * List all the Blobs of a key range, page by page, ending with an empty page
+     */
+    private void listShard(Shard shard, BlockingQueue<List<StorageMetadata>> queue) throws InterruptedException {
+        ListContainerOptions options = new ListContainerOptions().recursive();
+        if (!shard.prefix.isEmpty()) {
+            options.prefix(shard.prefix);
+        }
+        String marker = shard.after;
+        boolean end = false;
+        do {
+            if (marker != null) {
+                options.afterMarker(marker);
+            }
+            PageSet<? extends StorageMetadata> page = blobStore.list(containerName, options);
+            List<StorageMetadata> blobs = new ArrayList<>(page.size());
+            for (StorageMetadata resourceMd : page) {
+                if (shard.upTo != null && resourceMd.getName().compareTo(shard.upTo) > 0) {
+                    // The rest of the keys belong to the next range
+                    end = true;
+                    break;
+                }
+                if (resourceMd.getType() == StorageType.BLOB) {
+                    blobs.add(resourceMd);
+                }
+            }
+            if (!blobs.isEmpty()) {
+                queue.put(blobs);
+            }
+            marker = page.getNextMarker();
+        } while (marker != null && !end);
+        queue.put(Collections.emptyList());
+    }
+
+
+    private static List<StorageMetadata> take(BlockingQueue<List<StorageMetadata>> queue, Future<?> listing)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            List<StorageMetadata> page = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (page != null) {
+                return page;
+            }
+            if (listing != null && listing.isDone()) {
+                // The listing failed before the end of the shard
+                listing.get();
+                return queue.take();
+            }
+        }
+    }
+
+
+    /**
+     * Runs of Blobs and common prefixes found under a prefix
+     */
+    private static class Discovery {
+        final List<Shard> runs = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+    }
+
+
+    /**
+     * Part of the keyspace: the keys of a prefix after a key and up to a key (both optional),
+     * or a run of Blobs already listed
+     */
+    private static class Shard implements Comparable<Shard> {
+        final String prefix;
+        final String after;
+        final String upTo;
+        final List<StorageMetadata> blobs;
+
+        private Shard(String prefix, String after, String upTo, List<StorageMetadata> blobs) {
+            this.prefix = prefix;
+            this.after = after;
+            this.upTo = upTo;
+            this.blobs = blobs;
+        }
+
+        static Shard range(String prefix, String after, String upTo) {
+            return new Shard(prefix, after, upTo, null);
+        }
+
+        static Shard run(List<StorageMetadata> blobs) {
+            return new Shard(null, null, null, blobs);
+        }
+
+        String key() {
+            return blobs != null ? blobs.get(0).getName() : after != null ? after : prefix;
+        }
+
+        @Override
+        public int compareTo(Shard other) {
+            return key().compareTo(other.key());
+        }
+    }
+}
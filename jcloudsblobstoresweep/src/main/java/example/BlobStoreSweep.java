@@ -0,0 +1,159 @@
+/**
+ * BlobStoreSweep is an example that handles a BlobStore container.
+ * Delete the Blobs of a BlobStore container selected by retention rules in several cloud providers:
+ *  - S3 bucket on AWS (Amazon Web Services)
+ *  - Blob Storage container on Microsoft Azure
+ *  - Cloud Storage bucket on Google Cloud Platform (GCP)
+ * You must provide 3 parameters:
+ * OPERATION      = run (delete the selected Blobs) or dry-run (only print the selected Blobs)
+ * CONTAINER_NAME = Name of the container
+ * RULES_FILE     = File with the retention rules, one rule per line (see BlobStoreSweepRules)
+ */
+
+package example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.blobstore.BlobStoreContext;
+
+
+public class BlobStoreSweep {
+
+    private static String awsAccessKeyId;           // AWS Access Key ID
+    private static String awsSecretKey;             // AWS Secret Key
+    private static String azureAccountName;         // Azure Storage Account Name
+    private static String azureAccountKey;          // Azure Storage Account Key
+    private static String gcloudClientEmail;        // Google Cloud Client email
+    private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static Properties configuration;        // Configuration for the sweeps, the retries and the connections
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3 || !("run".equals(args[0]) || "dry-run".equals(args[0]))) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoresweep.jar <run|dry-run> <CONTAINER_NAME> <RULES_FILE>");
+            System.exit(1);
+        }
+
+        // Delete the selected Blobs or only print them
+        boolean dryRun = "dry-run".equals(args[0]);
+        // The name for the container
+        String containerName = args[1];
+        // The file with the retention rules
+        String rulesFile = args[2];
+
+        System.out.println("Operation:      " + args[0]);
+        System.out.println("Container name: " + containerName);
+        System.out.println("Rules file:     " + rulesFile);
+
+        // Check the rules before connecting to the providers
+        try {
+            for (BlobStoreSweepRules.Rule rule : BlobStoreSweepRules.load(rulesFile).rules()) {
+                System.out.println(" - Rule: " + rule);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+            System.exit(1);
+        }
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // The container is listed and the Blobs are deleted in parallel
+        BlobStoreConnections.configure(configuration, true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        sweepBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, rulesFile, dryRun);
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        sweepBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, rulesFile, dryRun);
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        sweepBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, rulesFile, dryRun);
+    }
+
+
+    /**
+     * Load Configuration from a file and get the authentication credentials for every provider
+     */
+    private static void loadConfiguration() {
+
+        // The connection string is taken from app.properties file
+        Properties prop = new Properties();
+
+        try {
+            InputStream is = ClassLoader.getSystemResourceAsStream("app.properties");
+            prop.load(is);
+        } catch(IOException e) {
+            System.out.println(e.toString());
+        }
+        // AWS
+        awsAccessKeyId = prop.getProperty("aws_access_key_id");
+        awsSecretKey = prop.getProperty("aws_secret_access_key");
+        // Azure
+        azureAccountName = prop.getProperty("azure_account_name");
+        azureAccountKey = prop.getProperty("azure_account_key");
+        // Google Cloud
+        gcloudClientEmail = prop.getProperty("gcloud_client_email");
+        gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Sweeps, retries and connections
+        configuration = prop;
+    }
+
+
+    /**
+     * Delete the Blobs of a BlobStore container selected by the retention rules
+     */
+    private static void sweepBlobStore(String provider, String identity, String credential,
+                                       String containerName, String rulesFile, boolean dryRun) {
+        // Init
+        BlobStoreContext context = BlobStoreConnections.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(BlobStoreContext.class);
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+
+        System.out.printf("Sweeping the BlobStore container on \"%s\"%s ...\n", provider, dryRun ? " (dry run)" : "");
+
+        // Instantiate a BlobStore sweeper
+        BlobStoreSweeper sweeper = BlobStoreSweeper.fromProperties(provider, context, retry, dryRun,
+                configuration);
+
+        try {
+            // Every provider starts with new keep_last groups and the current time
+            sweeper.sweep(containerName, BlobStoreSweepRules.load(rulesFile));
+            System.out.println(dryRun ? "Evaluated." : "Swept.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            sweeper.printStatistics();
+            sweeper.close();
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+    }
+}
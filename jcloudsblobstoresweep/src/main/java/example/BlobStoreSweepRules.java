@@ -0,0 +1,242 @@
+/**
+ * BlobStoreSweepRules reads the retention rules of a sweep and evaluates them on the Blobs while they are listed.
+ * The rules file has one rule per line, every rule has one or more conditions (all of them must match):
+ *  - prefix=<PREFIX>          = Name starts with the prefix
+ *  - pattern=<REGEX>          = Name matches the regular expression
+ *  - older_than_days=<DAYS>   = Last modified more than DAYS days ago
+ *  - min_size=<BYTES>         = Size of at least BYTES
+ *  - max_size=<BYTES>         = Size of at most BYTES
+ *  - keep_last=<K>            = Keep the K newest Blobs of every group of names, K >= 1 (see below)
+ * A Blob is deleted when it matches any rule without keep_last. The rest of the Blobs are checked by the
+ * keep_last rules: the Blobs whose name matches the prefix and the pattern of the rule are grouped by the first
+ * group of the pattern (one group for all of them if the pattern has no group), the K newest Blobs (last modified)
+ * of every group are kept and the older ones are deleted if they match the rest of the conditions. Only the K
+ * newest Blobs of every group are kept in memory, so the rules are evaluated while the container is listed.
+ * A rule that matches all the Blobs (no condition besides keep_last) is rejected.
+ * Lines starting with # and empty lines are ignored.
+ */
+
+package example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jclouds.blobstore.domain.StorageMetadata;
+
+
+public class BlobStoreSweepRules {
+
+    // The oldest Blob of a group is the first one, the name breaks the ties
+    private static final Comparator<StorageMetadata> OLDEST_FIRST =
+            Comparator.comparingLong(BlobStoreSweepRules::lastModified).thenComparing(StorageMetadata::getName);
+
+    private final List<Rule> rules;
+    private final long now;
+
+
+    public BlobStoreSweepRules(List<Rule> rules, long now) {
+        this.rules = rules;
+        this.now = now;
+    }
+
+
+    /**
+     * Read the rules from a file, the ages are relative to the current time
+     */
+    public static BlobStoreSweepRules load(String fileName) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    rules.add(Rule.parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Rule at line " + lineNumber + " of " + fileName + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        if (rules.isEmpty()) {
+            throw new IOException("No rules in " + fileName);
+        }
+        return new BlobStoreSweepRules(rules, System.currentTimeMillis());
+    }
+
+
+    /**
+     * Get the rules
+     */
+    public List<Rule> rules() {
+        return rules;
+    }
+
+
+    /**
+     * Evaluate the rules on a listed Blob, the Blobs to delete are given to the consumer: the Blob itself
+     * or an older version of a keep_last group that is not kept anymore
+     */
+    public void evaluate(StorageMetadata blob, Consumer<StorageMetadata> delete) {
+        for (Rule rule : rules) {
+            if (rule.keepLast < 0 && rule.matchesName(blob.getName()) && matchesBlob(rule, blob)) {
+                delete.accept(blob);
+                return;
+            }
+        }
+        for (Rule rule : rules) {
+            if (rule.keepLast >= 0 && rule.matchesName(blob.getName())) {
+                StorageMetadata evicted = rule.keep(blob);
+                if (evicted != null && matchesBlob(rule, evicted)) {
+                    delete.accept(evicted);
+                }
+                return;
+            }
+        }
+    }
+
+
+    private boolean matchesBlob(Rule rule, StorageMetadata blob) {
+        if (rule.olderThanMillis >= 0 && now - lastModified(blob) <= rule.olderThanMillis) {
+            return false;
+        }
+        long size = blob.getSize() == null ? 0 : blob.getSize();
+        return size >= rule.minSize && size <= rule.maxSize;
+    }
+
+
+    private static long lastModified(StorageMetadata blob) {
+        Date lastModified = blob.getLastModified();
+        // A Blob without date is never old
+        return lastModified == null ? Long.MAX_VALUE : lastModified.getTime();
+    }
+
+
+    /**
+     * Retention rule, the conditions not given match any Blob
+     */
+    public static class Rule {
+        final String text;
+        final String prefix;
+        final Pattern pattern;
+        final long olderThanMillis;
+        final long minSize;
+        final long maxSize;
+        final int keepLast;
+
+        // Newest Blobs of every group of a keep_last rule, the oldest one first
+        private final Map<String, PriorityQueue<StorageMetadata>> groups = new HashMap<>();
+
+        Rule(String text, String prefix, Pattern pattern, long olderThanMillis, long minSize, long maxSize,
+             int keepLast) {
+            this.text = text;
+            this.prefix = prefix;
+            this.pattern = pattern;
+            this.olderThanMillis = olderThanMillis;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.keepLast = keepLast;
+        }
+
+        static Rule parse(String line) {
+            String prefix = "";
+            Pattern pattern = null;
+            long olderThanMillis = -1;
+            long minSize = 0;
+            long maxSize = Long.MAX_VALUE;
+            int keepLast = -1;
+            for (String condition : line.split("\\s+")) {
+                int equals = condition.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Condition without value: " + condition);
+                }
+                String key = condition.substring(0, equals);
+                String value = condition.substring(equals + 1);
+                switch (key) {
+                    case "prefix":
+                        prefix = value;
+                        break;
+                    case "pattern":
+                        pattern = Pattern.compile(value);
+                        break;
+                    case "older_than_days":
+                        olderThanMillis = TimeUnit.DAYS.toMillis(Long.parseLong(value));
+                        break;
+                    case "min_size":
+                        minSize = Long.parseLong(value);
+                        break;
+                    case "max_size":
+                        maxSize = Long.parseLong(value);
+                        break;
+                    case "keep_last":
+                        keepLast = Integer.parseInt(value);
+                        if (keepLast < 1) {
+                            // Every Blob would be evicted from its group as soon as it is listed
+                            throw new IllegalArgumentException("keep_last must keep at least 1 Blob: " + value);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown condition: " + key);
+                }
+            }
+            if (prefix.isEmpty() && pattern == null && olderThanMillis < 0
+                    && minSize == 0 && maxSize == Long.MAX_VALUE) {
+                throw new IllegalArgumentException("The rule matches all the Blobs: " + line);
+            }
+            return new Rule(line, prefix, pattern, olderThanMillis, minSize, maxSize, keepLast);
+        }
+
+        boolean matchesName(String name) {
+            return name.startsWith(prefix) && (pattern == null || pattern.matcher(name).matches());
+        }
+
+        /**
+         * Add a Blob to its group, returning the oldest Blob of the group if there are more than K Blobs
+         */
+        StorageMetadata keep(StorageMetadata blob) {
+            String group = group(blob.getName());
+            PriorityQueue<StorageMetadata> newest = groups.computeIfAbsent(group,
+                    name -> new PriorityQueue<>(OLDEST_FIRST));
+            newest.add(blob);
+            return newest.size() > keepLast ? newest.poll() : null;
+        }
+
+        private String group(String name) {
+            if (pattern == null) {
+                return "";
+            }
+            Matcher matcher = pattern.matcher(name);
+            return matcher.matches() && matcher.groupCount() > 0 && matcher.group(1) != null
+                    ? matcher.group(1) : "";
+        }
+
+        /**
+         * Number of groups of a keep_last rule
+         */
+        public int groupCount() {
+            return groups.size();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * BlobStoreSweeper deletes the Blobs of a container selected by the retention rules of a sweep.
+ * The container is listed in parallel shards (BlobStoreParallelList) and every Blob is evaluated while it is
+ * listed, nothing is written to disk and only the pages being listed and the keep_last groups are kept in memory.
+ * The selected Blobs are deleted in batches while the listing goes on:
+ *  - AWS S3: one multi-object delete request for every batch (up to 1000 Blobs), the Blobs rejected in the
+ *    response are counted as failed, or sent again if the error is transient (InternalError, SlowDown).
+ *  - Azure Blob Storage and Google Cloud Storage: the Blobs of every batch are deleted in parallel, one request
+ *    for every Blob.
+ * The listing waits while too many deletions are queued. In a dry run the selected Blobs are only printed.
+ * Configuration properties (all optional):
+ *  - sweep_list_concurrency   = Shards of the container listed at the same time
+ *  - sweep_delete_concurrency = Delete requests sent at the same time
+ *  - sweep_batch_size         = Blobs in every batch of deletions
+ *  - sweep_progress_interval  = Blobs evaluated between the progress messages
+ */
+
+package example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.s3.S3Client;
+import org.jclouds.s3.domain.DeleteResult;
+
+
+public class BlobStoreSweeper {
+
+    private static final int MAX_S3_BATCH_SIZE = 1000;      // Largest multi-object delete request of S3
+
+    // Error codes of the Blobs rejected by a multi-object delete that can be deleted again
+    private static final Set<String> RETRYABLE_S3_ERRORS = new HashSet<>(Arrays.asList(
+            "InternalError", "SlowDown", "ServiceUnavailable"));
+
+    private final String provider;
+    private final BlobStoreContext context;
+    private final BlobStore blobStore;
+    private final BlobStoreRetry retry;
+    private final boolean dryRun;
+    private final int listConcurrency;
+    private final int deleteConcurrency;
+    private final int batchSize;
+    private final long progressInterval;
+    private final ExecutorService executor;
+
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong evaluatedBytes = new AtomicLong();
+    private final AtomicLong selected = new AtomicLong();
+    private final AtomicLong selectedBytes = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private long startNanos = System.nanoTime();
+    private long elapsedNanos = 0;
+
+
+    public BlobStoreSweeper(String provider, BlobStoreContext context, BlobStoreRetry retry, boolean dryRun,
+                            int listConcurrency, int deleteConcurrency, int batchSize, long progressInterval) {
+        this.provider = provider;
+        this.context = context;
+        this.blobStore = context.getBlobStore();
+        this.retry = retry;
+        this.dryRun = dryRun;
+        this.listConcurrency = Math.max(1, listConcurrency);
+        this.deleteConcurrency = Math.max(1, deleteConcurrency);
+        this.batchSize = Math.max(1, "aws-s3".equals(provider) ? Math.min(batchSize, MAX_S3_BATCH_SIZE) : batchSize);
+        this.progressInterval = progressInterval;
+        this.executor = Executors.newFixedThreadPool(this.deleteConcurrency);
+    }
+
+
+    /**
+     * Create the sweeper of a provider from the configuration properties
+     */
+    public static BlobStoreSweeper fromProperties(String provider, BlobStoreContext context, BlobStoreRetry retry,
+                                                  boolean dryRun, Properties prop) {
+        return new BlobStoreSweeper(provider, context, retry, dryRun,
+                Integer.parseInt(prop.getProperty("sweep_list_concurrency", "4").trim()),
+                Integer.parseInt(prop.getProperty("sweep_delete_concurrency", "16").trim()),
+                Integer.parseInt(prop.getProperty("sweep_batch_size", "1000").trim()),
+                Long.parseLong(prop.getProperty("sweep_progress_interval", "100000").trim()));
+    }
+
+
+    /**
+     * List the container, evaluate the rules on every Blob and delete the selected Blobs
+     */
+    public void sweep(String containerName, BlobStoreSweepRules rules) throws InterruptedException, ExecutionException {
+        startNanos = System.nanoTime();
+        // The listing waits while there are too many deletions queued
+        Semaphore queued = new Semaphore(deleteConcurrency * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        try {
+            BlobStoreParallelList parallelList = new BlobStoreParallelList(blobStore, containerName, listConcurrency);
+            parallelList.list(blob -> {
+                evaluatedBytes.addAndGet(size(blob));
+                rules.evaluate(blob, selectedBlob -> {
+                    selected.incrementAndGet();
+                    selectedBytes.addAndGet(size(selectedBlob));
+                    if (dryRun) {
+                        System.out.printf(" - %s (%d bytes, %s)\n", selectedBlob.getName(), size(selectedBlob),
+                                selectedBlob.getLastModified());
+                        return;
+                    }
+                    batch.add(selectedBlob.getName());
+                    if (batch.size() >= batchSize) {
+                        futures.addAll(delete(containerName, new ArrayList<>(batch), queued));
+                        futures.removeIf(Future::isDone);
+                        batch.clear();
+                    }
+                });
+                long count = evaluated.incrementAndGet();
+                if (progressInterval > 0 && count % progressInterval == 0) {
+                    printProgress();
+                }
+            });
+            if (!batch.isEmpty()) {
+                futures.addAll(delete(containerName, batch, queued));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+
+    /**
+     * Print the Blobs evaluated and deleted, and the throughput of the sweep
+     */
+    public void printStatistics() {
+        long nanos = elapsedNanos > 0 ? elapsedNanos : System.nanoTime() - startNanos;
+        double seconds = Math.max(nanos / 1e9, 0.001);
+        System.out.printf("Sweep on \"%s\": %d Blobs evaluated (%.1f MB) in %.1f s, %.0f Blobs/s\n",
+                provider, evaluated.get(), evaluatedBytes.get() / (1024.0 * 1024.0), seconds,
+                evaluated.get() / seconds);
+        if (dryRun) {
+            System.out.printf("Sweep on \"%s\": %d Blobs selected (%.1f MB), dry run, nothing deleted\n",
+                    provider, selected.get(), selectedBytes.get() / (1024.0 * 1024.0));
+        } else {
+            System.out.printf("Sweep on \"%s\": %d Blobs selected (%.1f MB), %d deleted in %d batches (%.0f Blobs/s), %d failed\n",
+                    provider, selected.get(), selectedBytes.get() / (1024.0 * 1024.0), deleted.get(), batches.get(),
+                    deleted.get() / seconds, failed.get());
+        }
+    }
+
+
+    /**
+     * Stop the threads of the deletions
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+
+    private void printProgress() {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 0.001);
+        System.out.printf("Evaluated %d Blobs (%.0f Blobs/s), %d selected, %d deleted\n",
+                evaluated.get(), evaluated.get() / seconds, selected.get(), deleted.get());
+    }
+
+
+    /**
+     * Delete a batch of Blobs, with one request in AWS S3 and with one request for every Blob in the rest
+     */
+    private List<Future<?>> delete(String containerName, List<String> names, Semaphore queued) {
+        batches.incrementAndGet();
+        List<Future<?>> futures = new ArrayList<>();
+        if ("aws-s3".equals(provider)) {
+            queued.acquireUninterruptibly();
+            futures.add(executor.submit(() -> {
+                try {
+                    deleteObjects(containerName, names);
+                } finally {
+                    queued.release();
+                }
+            }));
+        } else {
+            for (String name : names) {
+                queued.acquireUninterruptibly();
+                futures.add(executor.submit(() -> {
+                    try {
+                        retry.call("removeBlob", () -> {
+                            blobStore.removeBlob(containerName, name);
+                            return null;
+                        });
+                        deleted.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.out.printf("Error: \"%s\" not deleted: %s\n", name, firstLine(e));
+                    } finally {
+                        queued.release();
+                    }
+                }));
+            }
+        }
+        return futures;
+    }
+
+
+    /**
+     * Delete a batch of Blobs with a multi-object delete request of S3, the Blobs rejected with a transient
+     * error are sent again in the next attempt and the rest of the rejected Blobs are failed
+     */
+    private void deleteObjects(String containerName, List<String> names) {
+        S3Client s3Client = context.unwrapApi(S3Client.class);
+        List<String> remaining = new ArrayList<>(names);
+        try {
+            retry.call("deleteObjects", () -> {
+                DeleteResult result = s3Client.deleteObjects(containerName, remaining);
+                List<String> retryable = new ArrayList<>();
+                String retryableCode = null;
+                for (String name : remaining) {
+                    DeleteResult.Error error = result.getErrors().get(name);
+                    if (error == null) {
+                        deleted.incrementAndGet();
+                    } else if (RETRYABLE_S3_ERRORS.contains(error.getCode())) {
+                        retryable.add(name);
+                        retryableCode = error.getCode();
+                    } else {
+                        failed.incrementAndGet();
+                        System.out.printf("Error: \"%s\" not deleted: %s %s\n", name, error.getCode(),
+                                error.getMessage());
+                    }
+                }
+                remaining.clear();
+                remaining.addAll(retryable);
+                if (!remaining.isEmpty()) {
+                    // The code is in the message, so SlowDown is also counted as throttled
+                    throw new IOException(remaining.size() + " Blobs not deleted: " + retryableCode);
+                }
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            failed.addAndGet(remaining.size());
+            if (!remaining.isEmpty()) {
+                System.out.printf("Error: Batch from \"%s\" not deleted: %s\n", remaining.get(0), firstLine(e));
+            }
+        }
+    }
+
+
+    private static long size(StorageMetadata blob) {
+        return blob.getSize() == null ? 0 : blob.getSize();
+    }
+
+
+    private static String firstLine(Exception e) {
+        String message = String.valueOf(e.getMessage());
+        return message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * BlobStorePack handles the packs of small files.
+ * Many small files are concatenated into large pack Blobs, and an index Blob keeps the
+ * position of every file, so a file is read with a ranged request to its pack Blob.
+ * Blob names:
+ *  - <PACK_NAME>.index  = Index Blob
+ *  - <PACK_NAME>.pack.N = Pack Blobs (N = 0, 1, 2, ...)
+ * Index layout:
+ *  - Header: magic "JCP1" (4 bytes), number of entries (4 bytes)
+ *  - Entries, sorted by name: name (modified UTF-8), pack number (4 bytes), offset (8 bytes), length (8 bytes)
+ */
+
+package example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+public class BlobStorePack {
+
+    public static final long DEFAULT_MAX_PACK_SIZE = 64L*1024*1024;    // Default maximum size of a pack Blob
+
+    private static final byte[] MAGIC = {'J', 'C', 'P', '1'};          // Index format identifier
+
+
+    /**
+     * Position of a file in the pack Blobs
+     */
+    public static class Entry {
+        public final String name;
+        public final int pack;
+        public final long offset;
+        public final long length;
+
+        public Entry(String name, int pack, long offset, long length) {
+            this.name = name;
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * Get the name of the index Blob
+     */
+    public static String indexName(String packName) {
+        return packName + ".index";
+    }
+
+
+    /**
+     * Get the name of a pack Blob
+     */
+    public static String packBlobName(String packName, int pack) {
+        return packName + ".pack." + pack;
+    }
+
+
+    /**
+     * Write an index
+     */
+    public static byte[] writeIndex(Map<String, Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(entries.size());
+        for (Entry entry : new TreeMap<>(entries).values()) {
+            out.writeUTF(entry.name);
+            out.writeInt(entry.pack);
+            out.writeLong(entry.offset);
+            out.writeLong(entry.length);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Read an index
+     */
+    public static Map<String, Entry> readIndex(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Blob is not a pack index");
+        }
+        int count = in.readInt();
+        Map<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readUTF(), in.readInt(), in.readLong(), in.readLong());
+            entries.put(entry.name, entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * BlobStoreRateLimiter limits the requests and the bandwidth used on a cloud provider.
+ * There is one token bucket for requests per second and one for bytes per second on every
+ * provider, shared by all the operations on that provider.
+ * Configuration properties (all optional, 0 = unlimited):
+ *  - rate_limit_requests_per_second            = Default requests per second
+ *  - rate_limit_bytes_per_second               = Default bytes per second
+ *  - rate_limit_<PROVIDER>_requests_per_second = Requests per second on a provider
+ *  - rate_limit_<PROVIDER>_bytes_per_second    = Bytes per second on a provider
+ *  - rate_limit_file                           = Properties file with the same limits, read again when it
+ *                                                changes, to change the limits while the transfers run
+ * The same properties can be given as system properties (-D) when the application is started.
+ */
+
+package example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.ByteSource;
+
+
+public class BlobStoreRateLimiter {
+
+    private static final int MAX_READ_SIZE = 64*1024;     // Maximum bytes acquired on every read
+    private static final long WATCH_INTERVAL_MILLIS = 1000; // Time between the checks of the limits file
+
+    private static final Map<String, BlobStoreRateLimiter> limiters = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService watcher;        // Reads the limits file again when it changes
+    private static volatile Properties fileLimits;          // Last limits read from the limits file
+
+    private final TokenBucket requests;
+    private final TokenBucket bytes;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+
+    public BlobStoreRateLimiter(double requestsPerSecond, double bytesPerSecond) {
+        this.requests = new TokenBucket(requestsPerSecond);
+        this.bytes = new TokenBucket(bytesPerSecond);
+    }
+
+
+    /**
+     * Get the rate limiter of a provider, it is created from the configuration properties the first time
+     */
+    public static BlobStoreRateLimiter forProvider(String provider, Properties prop) {
+        String limitsFile = System.getProperty("rate_limit_file", prop.getProperty("rate_limit_file", "")).trim();
+        if (!limitsFile.isEmpty()) {
+            watch(Paths.get(limitsFile));
+        }
+        return limiters.computeIfAbsent(provider, p -> {
+            BlobStoreRateLimiter limiter = new BlobStoreRateLimiter(
+                    rate(prop, "rate_limit_" + p + "_requests_per_second", "rate_limit_requests_per_second"),
+                    rate(prop, "rate_limit_" + p + "_bytes_per_second", "rate_limit_bytes_per_second"));
+            // The limits file overrides the configuration
+            Properties limits = fileLimits;
+            if (limits != null) {
+                limiter.apply(p, limits, false);
+            }
+            return limiter;
+        });
+    }
+
+
+    /**
+     * Check the limits file in the background and apply its limits to every provider when it changes,
+     * the limits that are not in the file are not changed
+     */
+    private static synchronized void watch(Path limitsFile) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastModified = { -1 };
+        Runnable check = () -> {
+            try {
+                long modified = Files.getLastModifiedTime(limitsFile).toMillis();
+                if (modified == lastModified[0]) {
+                    return;
+                }
+                lastModified[0] = modified;
+                Properties limits = new Properties();
+                try (InputStream is = Files.newInputStream(limitsFile)) {
+                    limits.load(is);
+                }
+                fileLimits = limits;
+                for (Map.Entry<String, BlobStoreRateLimiter> entry : limiters.entrySet()) {
+                    entry.getValue().apply(entry.getKey(), limits, true);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error: Rate limits file " + limitsFile + " not read: " + e.getMessage());
+            }
+        };
+        // The file is read once before the first limiter is created
+        check.run();
+        watcher.scheduleWithFixedDelay(check, WATCH_INTERVAL_MILLIS, WATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void apply(String provider, Properties limits, boolean print) {
+        String requestsKey = limits.containsKey("rate_limit_" + provider + "_requests_per_second")
+                ? "rate_limit_" + provider + "_requests_per_second" : "rate_limit_requests_per_second";
+        if (limits.containsKey(requestsKey)) {
+            setRequestsPerSecond(Double.parseDouble(limits.getProperty(requestsKey).trim()));
+            if (print) {
+                System.out.printf("Rate limit on \"%s\": %s requests per second\n", provider,
+                        limits.getProperty(requestsKey).trim());
+            }
+        }
+        String bytesKey = limits.containsKey("rate_limit_" + provider + "_bytes_per_second")
+                ? "rate_limit_" + provider + "_bytes_per_second" : "rate_limit_bytes_per_second";
+        if (limits.containsKey(bytesKey)) {
+            setBytesPerSecond(Double.parseDouble(limits.getProperty(bytesKey).trim()));
+            if (print) {
+                System.out.printf("Rate limit on \"%s\": %s bytes per second\n", provider,
+                        limits.getProperty(bytesKey).trim());
+            }
+        }
+    }
+
+
+    private static double rate(Properties prop, String providerKey, String defaultKey) {
+        String value = System.getProperty(providerKey, prop.getProperty(providerKey));
+        if (value == null) {
+            value = System.getProperty(defaultKey, prop.getProperty(defaultKey, "0"));
+        }
+        return Double.parseDouble(value.trim());
+    }
+
+
+    /**
+     * Change the requests per second (0 = unlimited)
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        requests.setRate(requestsPerSecond);
+    }
+
+
+    /**
+     * Change the bytes per second (0 = unlimited)
+     */
+    public void setBytesPerSecond(double bytesPerSecond) {
+        bytes.setRate(bytesPerSecond);
+    }
+
+
+    /**
+     * Wait until a new request is allowed
+     */
+    public void acquireRequest() throws IOException {
+        requestCount.incrementAndGet();
+        throttledNanos.addAndGet(requests.acquire(1));
+    }
+
+
+    /**
+     * Limit the bandwidth used by a stream
+     */
+    public InputStream limit(InputStream inputStream) {
+        return new ThrottledInputStream(inputStream);
+    }
+
+
+    /**
+     * Limit the bandwidth used by a payload
+     */
+    public ByteSource limit(final ByteSource payload) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return limit(payload.openStream());
+            }
+
+            @Override
+            public long size() throws IOException {
+                return payload.size();
+            }
+        };
+    }
+
+
+    /**
+     * Get the time spent waiting for the limits in milliseconds
+     */
+    public long throttledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+
+    /**
+     * Print the statistics of the rate limiter
+     */
+    public void printStatistics(String provider) {
+        System.out.printf("Rate limit on \"%s\": %d requests, %d bytes, %d ms throttled\n",
+                provider, requestCount.get(), byteCount.get(), throttledMillis());
+    }
+
+
+    /**
+     * InputStream that waits for the bytes per second limit on every read
+     */
+    private class ThrottledInputStream extends FilterInputStream {
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttledNanos.addAndGet(bytes.acquire(1));
+            int value = super.read();
+            if (value != -1) {
+                byteCount.incrementAndGet();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readLen = super.read(b, off, Math.min(len, MAX_READ_SIZE));
+            if (readLen > 0) {
+                byteCount.addAndGet(readLen);
+                throttledNanos.addAndGet(bytes.acquire(readLen));
+            }
+            return readLen;
+        }
+    }
+
+
+    /**
+     * Token bucket with a capacity of one second, permits above the available tokens are
+     * borrowed and the next acquisitions wait for them
+     */
+    private static class TokenBucket {
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double rate) {
+            setRate(rate);
+            this.tokens = this.rate;
+        }
+
+        synchronized void setRate(double rate) {
+            this.rate = Math.max(0, rate);
+            this.tokens = Math.min(tokens, this.rate);
+        }
+
+        /**
+         * Acquire permits and get the nanoseconds waited
+         */
+        long acquire(long permits) throws IOException {
+            long waitNanos;
+            synchronized (this) {
+                if (rate <= 0) {
+                    return 0;
+                }
+                long now = System.nanoTime();
+                tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+                lastRefill = now;
+                tokens -= permits;
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+                }
+            }
+            return waitNanos;
+        }
+    }
+}
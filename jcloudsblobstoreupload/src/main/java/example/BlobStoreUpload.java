@@ -8,16 +8,41 @@
  * CONTAINER_NAME  = Container name
  * BLOB_NAME       = Blob name in the container
  * LOCAL_FILE_NAME = Local file name
+ * Pack mode, bundle many small files into pack Blobs with an index, you must provide 4 parameters:
+ * pack
+ * CONTAINER_NAME  = Container name
+ * PACK_NAME       = Name of the pack in the container
+ * LOCAL_DIRECTORY = Local directory with the files
+ * MAX_PACK_SIZE   = Maximum size of a pack Blob in bytes (optional)
+ * Dedup mode, upload only the chunks of the file that are not in the container, you must provide 4 parameters:
+ * dedup
+ * CONTAINER_NAME  = Container name
+ * BLOB_NAME       = Blob name in the container
+ * LOCAL_FILE_NAME = Local file name
  */
 
 package example;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
@@ -34,9 +59,28 @@ public class BlobStoreUpload {
     private static String azureAccountKey;          // Azure Storage Account Key
     private static String gcloudClientEmail;        // Google Cloud Client email
     private static String gcloudPrivateKey;         // Google Cloud Private Key
+    private static BlobStoreEncryption encryption;  // Client-side encryption (null if disabled)
+    private static Properties configuration;        // Configuration for the retries and rate limits
+
+    private static final int DEDUP_CONCURRENCY = 8;     // Chunks uploaded at the same time
 
     public static void main(String[] args) throws IOException {
 
+        if (BlobStoreStartup.isTraining()) {
+            BlobStoreStartup.train();
+            return;
+        }
+
+        if (args.length > 0 && "pack".equals(args[0])) {
+            pack(args);
+            return;
+        }
+
+        if (args.length > 0 && "dedup".equals(args[0])) {
+            dedup(args);
+            return;
+        }
+
         if (args.length < 3) {
             System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoreupload.jar <CONTAINER_NAME> <BLOB_NAME> <LOCAL_FILE_NAME>");
             System.exit(1);
@@ -56,6 +100,9 @@ public class BlobStoreUpload {
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
+        // Build the contexts of all the providers in the background
+        prepareContexts(false);
+
         // ******************** AWS S3 provider ********************
 
         System.out.println("AWS S3 bucket:");
@@ -102,41 +149,379 @@ public class BlobStoreUpload {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Client-side encryption
+        encryption = BlobStoreEncryption.fromProperties(prop);
+        // Retries and rate limits
+        configuration = prop;
+    }
+
+
+    /**
+     * Start building the contexts of all the providers in parallel, with the connection settings
+     * of the parallel modes if needed
+     */
+    private static void prepareContexts(boolean parallel) {
+        BlobStoreConnections.configure(configuration, parallel);
+        BlobStoreStartup.configure(configuration);
+        BlobStoreStartup.prepareContext("aws-s3", awsAccessKeyId, awsSecretKey);
+        BlobStoreStartup.prepareContext("azureblob", azureAccountName, azureAccountKey);
+        BlobStoreStartup.prepareContext("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey);
     }
 
 
     /**
-     * Upload a local file to a BlobStore container
+     * Upload a local file to a BlobStore container of a provider with a configuration, for other
+     * applications (Ex.: the load test) running the example without its command line.
+     * The messages are printed as with the command line, returns false if the upload failed
      */
-    private static void uploadBlobStore(String provider, String identity, String credential,
-                                        String containerName, String blobName, String localFileName) {
+    public static boolean upload(Properties prop, String provider, String identity, String credential,
+                                 String containerName, String blobName, String localFileName) {
+        synchronized (BlobStoreUpload.class) {
+            if (configuration != prop) {
+                encryption = BlobStoreEncryption.fromProperties(prop);
+                configuration = prop;
+                BlobStoreConnections.configure(configuration, false);
+                BlobStoreStartup.configure(configuration);
+            }
+        }
+        return uploadBlobStore(provider, identity, credential, containerName, blobName, localFileName);
+    }
+
+
+    /**
+     * Upload a local file to a BlobStore container, returns false if it failed
+     */
+    private static boolean uploadBlobStore(String provider, String identity, String credential,
+                                           String containerName, String blobName, String localFileName) {
         // Init
-        BlobStoreContext context = ContextBuilder.newBuilder(provider)
-                .credentials(identity, credential)
-                .buildView(BlobStoreContext.class);
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
 
         System.out.printf("Uploading local file to BlobStore container on \"%s\" ...\n", provider);
 
         // Instantiate a BlobStore
         BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
 
         try {
             // Create a Blob
             ByteSource payload = Files.asByteSource(new File(localFileName));
+            if (encryption != null) {
+                // Encrypt the local file while it is uploaded
+                payload = encryption.encrypt(payload);
+            }
+            // Limit the bandwidth used while the Blob is uploaded
+            payload = rateLimiter.limit(payload);
             Blob blob = blobStore.blobBuilder(blobName)
                     .payload(payload)
                     .contentLength(payload.size())
                     .build();
 
             // Upload the Blob
-            blobStore.putBlob(containerName, blob);
+            retry.call("putBlob", () -> {
+                rateLimiter.acquireRequest();
+                return blobStore.putBlob(containerName, blob);
+            });
+            BlobStoreStartup.firstRequest(provider);
+            System.out.println("Uploaded.");
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File does not exist!!");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+        return false;
+    }
+
+
+    /**
+     * Upload the files in a local directory to BlobStore containers as a pack
+     */
+    private static void pack(String[] args) {
+
+        if (args.length < 4) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoreupload.jar pack <CONTAINER_NAME> <PACK_NAME> <LOCAL_DIRECTORY> [<MAX_PACK_SIZE>]");
+            System.exit(1);
+        }
+
+        // The name for the container
+        String containerName = args[1];
+        // The name for the pack
+        String packName = args[2];
+        // The name for the local directory
+        String localDirectoryName = args[3];
+        // The maximum size of a pack Blob
+        long maxPackSize = args.length > 4 ? Long.parseLong(args[4]) : BlobStorePack.DEFAULT_MAX_PACK_SIZE;
+
+        System.out.println("Container name:  " + containerName);
+        System.out.println("Pack name:       " + packName);
+        System.out.println("Local directory: " + localDirectoryName);
+        System.out.println("Max pack size:   " + maxPackSize);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // Build the contexts of all the providers in the background
+        prepareContexts(true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        packBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, packName, localDirectoryName, maxPackSize);
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        packBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, packName, localDirectoryName, maxPackSize);
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        packBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, packName, localDirectoryName, maxPackSize);
+    }
+
+
+    /**
+     * Upload the files in a local directory to a BlobStore container as pack Blobs and an index Blob
+     */
+    private static void packBlobStore(String provider, String identity, String credential,
+                                      String containerName, String packName, String localDirectoryName,
+                                      long maxPackSize) {
+        // Init
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
+
+        System.out.printf("Uploading pack of local files to BlobStore container on \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
+
+        Path localDirectory = Paths.get(localDirectoryName);
+        try (Stream<Path> paths = java.nio.file.Files.walk(localDirectory)) {
+            List<Path> files = paths.filter(path -> path.toFile().isFile()).sorted().collect(Collectors.toList());
+
+            // Concatenate the files into pack Blobs, a new pack is started when the current one is full
+            Map<String, BlobStorePack.Entry> index = new TreeMap<>();
+            List<ByteSource> packFiles = new ArrayList<>();
+            long packSize = 0;
+            int pack = 0;
+            for (Path file : files) {
+                ByteSource payload = Files.asByteSource(file.toFile());
+                if (encryption != null) {
+                    // Every file is encrypted on its own, so it can be read alone
+                    payload = encryption.encrypt(payload);
+                }
+                long size = payload.size();
+                if (packSize > 0 && packSize + size > maxPackSize) {
+                    putBlob(provider, blobStore, retry, rateLimiter, containerName,
+                            BlobStorePack.packBlobName(packName, pack), ByteSource.concat(packFiles));
+                    pack++;
+                    packFiles.clear();
+                    packSize = 0;
+                }
+                String name = localDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+                index.put(name, new BlobStorePack.Entry(name, pack, packSize, size));
+                packFiles.add(payload);
+                packSize += size;
+            }
+            if (!packFiles.isEmpty()) {
+                putBlob(provider, blobStore, retry, rateLimiter, containerName,
+                        BlobStorePack.packBlobName(packName, pack), ByteSource.concat(packFiles));
+                pack++;
+            }
+
+            // Upload the index
+            putBlob(provider, blobStore, retry, rateLimiter, containerName,
+                    BlobStorePack.indexName(packName), ByteSource.wrap(BlobStorePack.writeIndex(index)));
+
+            System.out.printf("Uploaded %d files in %d pack blobs.\n", index.size(), pack);
         } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
+
+            // Disconnect
+            context.close();
+        }
+    }
+
+
+    /**
+     * Upload a local file to BlobStore containers as deduplicated chunks
+     */
+    private static void dedup(String[] args) {
+
+        if (args.length < 4) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar blobstoreupload.jar dedup <CONTAINER_NAME> <BLOB_NAME> <LOCAL_FILE_NAME>");
+            System.exit(1);
+        }
+
+        // The name for the container
+        String containerName = args[1];
+        // The name for the blob
+        String blobName = args[2];
+        // The name for the local file
+        String localFileName = args[3];
+
+        System.out.println("Container name:  " + containerName);
+        System.out.println("Blob name:       " + blobName);
+        System.out.println("Local file name: " + localFileName);
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        // Build the contexts of all the providers in the background
+        prepareContexts(true);
+
+        // ******************** AWS S3 provider ********************
+
+        System.out.println("AWS S3 bucket:");
+
+        dedupBlobStore("aws-s3", awsAccessKeyId, awsSecretKey,
+                containerName, blobName, localFileName);
+
+        // ******************** Azure Blob Storage provider ********************
+
+        System.out.println("Azure Blob Storage container:");
+
+        dedupBlobStore("azureblob", azureAccountName, azureAccountKey,
+                containerName, blobName, localFileName);
+
+        // ******************** Google Cloud Storage provider ********************
+
+        System.out.println("Google Cloud Storage bucket:");
+
+        dedupBlobStore("google-cloud-storage", gcloudClientEmail, gcloudPrivateKey,
+                containerName, blobName, localFileName);
+    }
+
+
+    /**
+     * Upload a local file to a BlobStore container as content-defined chunks and a manifest Blob,
+     * only the chunks that are not already in the container are uploaded
+     */
+    private static void dedupBlobStore(String provider, String identity, String credential,
+                                       String containerName, String blobName, String localFileName) {
+        // Init
+        BlobStoreContext context = BlobStoreStartup.context(provider, identity, credential);
+
+        System.out.printf("Uploading deduplicated local file to BlobStore container on \"%s\" ...\n", provider);
+
+        // Instantiate a BlobStore
+        BlobStore blobStore = context.getBlobStore();
+        BlobStoreRetry retry = BlobStoreRetry.fromProperties(configuration);
+        BlobStoreRateLimiter rateLimiter = BlobStoreRateLimiter.forProvider(provider, configuration);
+        ExecutorService executor = Executors.newFixedThreadPool(DEDUP_CONCURRENCY);
+
+        try {
+            // Split the local file in chunks
+            File localFile = new File(localFileName);
+            ByteSource file = Files.asByteSource(localFile);
+            List<BlobStoreDedup.Chunk> chunks;
+            try (InputStream inputStream = file.openBufferedStream()) {
+                chunks = BlobStoreDedup.split(inputStream);
+            }
+
+            // Upload the chunks that are not in the container, every different chunk once
+            Map<String, BlobStoreDedup.Chunk> uniqueChunks = new LinkedHashMap<>();
+            for (BlobStoreDedup.Chunk chunk : chunks) {
+                uniqueChunks.putIfAbsent(chunk.hash, chunk);
+            }
+            AtomicLong uploadedBytes = new AtomicLong();
+            AtomicLong uploadedChunks = new AtomicLong();
+            List<Future<?>> uploads = new ArrayList<>();
+            for (BlobStoreDedup.Chunk chunk : uniqueChunks.values()) {
+                uploads.add(executor.submit(() -> {
+                    String chunkName = BlobStoreDedup.chunkBlobName(chunk.hash);
+                    boolean exists = retry.call("blobExists", () -> {
+                        rateLimiter.acquireRequest();
+                        return blobStore.blobExists(containerName, chunkName);
+                    });
+                    BlobStoreStartup.firstRequest(provider);
+                    if (!exists) {
+                        ByteSource payload = file.slice(chunk.offset, chunk.length);
+                        if (encryption != null) {
+                            // Every chunk is encrypted on its own
+                            payload = encryption.encrypt(payload);
+                        }
+                        putBlob(provider, blobStore, retry, rateLimiter, containerName, chunkName, payload);
+                        uploadedBytes.addAndGet(chunk.length);
+                        uploadedChunks.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+
+            // Upload the manifest
+            putBlob(provider, blobStore, retry, rateLimiter, containerName, BlobStoreDedup.manifestName(blobName),
+                    ByteSource.wrap(BlobStoreDedup.writeManifest(localFile.length(), chunks)));
+
+            System.out.printf("Uploaded %d of %d chunks (%d of %d bytes).\n",
+                    uploadedChunks.get(), chunks.size(), uploadedBytes.get(), localFile.length());
+        } catch (FileNotFoundException e) {
             System.out.println("Error: File does not exist!!");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Upload interrupted!!");
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
         } finally {
-            System.out.println("Uploaded.");
+            executor.shutdownNow();
+            retry.printStatistics(provider);
+            BlobStoreConnections.printStatistics(provider);
+            rateLimiter.printStatistics(provider);
+            retry.close();
 
             // Disconnect
             context.close();
         }
     }
+
+
+    /**
+     * Upload a payload to a Blob with retries and rate limits
+     */
+    private static void putBlob(String provider, BlobStore blobStore, BlobStoreRetry retry,
+                                BlobStoreRateLimiter rateLimiter, String containerName, String blobName,
+                                ByteSource payload) throws IOException {
+        ByteSource limitedPayload = rateLimiter.limit(payload);
+        Blob blob = blobStore.blobBuilder(blobName)
+                .payload(limitedPayload)
+                .contentLength(limitedPayload.size())
+                .build();
+        retry.call("putBlob", () -> {
+            rateLimiter.acquireRequest();
+            return blobStore.putBlob(containerName, blob);
+        });
+        BlobStoreStartup.firstRequest(provider);
+    }
 }
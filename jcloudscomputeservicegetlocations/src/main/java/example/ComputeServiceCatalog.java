@@ -0,0 +1,359 @@
+/**
+ * ComputeServiceCatalog keeps the locations, images and hardware profiles of the compute providers.
+ *  - Fetch: the contexts of the providers are built in parallel and the locations, images and
+ *    hardware profiles of every provider are listed at the same time.
+ *  - Cache: the catalog is saved in a local JSON file with the time of every provider, a provider
+ *    is only fetched again when its data is older than the TTL. If the fetch of a provider fails,
+ *    its cached data is kept.
+ *  - Index: the entries are indexed in memory by id and by location. A lookup by location also
+ *    returns the entries of its parent locations (region of a zone) and the global entries.
+ * Configuration properties (all optional):
+ *  - catalog_cache_file  = Local file of the cache
+ *  - catalog_ttl_minutes = Minutes the cached data of a provider is used
+ */
+
+package example;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.Processor;
+import org.jclouds.domain.Location;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+
+public class ComputeServiceCatalog {
+
+    public static final String LOCATIONS = "locations";
+    public static final String IMAGES = "images";
+    public static final String HARDWARE = "hardware";
+
+    /**
+     * Location, image or hardware profile of a provider
+     */
+    public static class Entry {
+        public String id;
+        public String name;
+        public String location;         // Location id, empty for a global entry
+        public String description;
+
+        Entry(String id, String name, Location location, String description) {
+            this.id = id;
+            this.name = name == null ? "" : name;
+            this.location = location == null ? "" : location.getId();
+            this.description = description == null ? "" : description;
+        }
+    }
+
+    /**
+     * Catalog of a provider, as saved in the cache
+     */
+    private static class ProviderCatalog {
+        long time;                                          // Time of the fetch (milliseconds since the epoch)
+        Map<String, List<Entry>> entries = new LinkedHashMap<>();
+        Map<String, String> parents = new HashMap<>();      // Parent of every location
+
+        // Index: kind -> id -> entry, and kind -> location -> entries
+        transient Map<String, Map<String, Entry>> byId;
+        transient Map<String, Map<String, List<Entry>>> byLocation;
+    }
+
+    private final String cacheFileName;
+    private final long ttlMillis;
+    private final Map<String, ProviderCatalog> providers = new TreeMap<>();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+
+    public ComputeServiceCatalog(String cacheFileName, long ttlMillis) {
+        this.cacheFileName = cacheFileName;
+        this.ttlMillis = ttlMillis;
+    }
+
+
+    /**
+     * Create the catalog from the configuration properties
+     */
+    public static ComputeServiceCatalog fromProperties(Properties prop) {
+        return new ComputeServiceCatalog(
+                prop.getProperty("catalog_cache_file", "compute-catalog.json").trim(),
+                TimeUnit.MINUTES.toMillis(Long.parseLong(prop.getProperty("catalog_ttl_minutes", "1440").trim())));
+    }
+
+
+    /**
+     * Load the cache file, if it exists
+     */
+    public void load() throws IOException {
+        File file = new File(cacheFileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            Cache cache = gson.fromJson(reader, Cache.class);
+            if (cache != null && cache.providers != null) {
+                for (Map.Entry<String, ProviderCatalog> entry : cache.providers.entrySet()) {
+                    index(entry.getValue());
+                    providers.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (JsonParseException e) {
+            System.out.println("Error: Cache file ignored: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Check if the cached data of a provider is missing or older than the TTL
+     */
+    public boolean isStale(String provider) {
+        ProviderCatalog catalog = providers.get(provider);
+        return catalog == null || System.currentTimeMillis() - catalog.time > ttlMillis;
+    }
+
+
+    /**
+     * Get the age of the cached data of a provider in milliseconds, or -1 if it is not cached
+     */
+    public long age(String provider) {
+        ProviderCatalog catalog = providers.get(provider);
+        return catalog == null ? -1 : System.currentTimeMillis() - catalog.time;
+    }
+
+
+    /**
+     * Fetch the catalog of the providers in parallel and save the cache, every provider is given as
+     * provider name -> {identity, credential}
+     */
+    public void fetch(Map<String, String[]> credentials) throws IOException, InterruptedException {
+        // Every provider needs a thread for its context and three for its lists
+        ExecutorService executor = Executors.newFixedThreadPool(credentials.size() * 4);
+        try {
+            Map<String, Future<ProviderCatalog>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, String[]> entry : credentials.entrySet()) {
+                String provider = entry.getKey();
+                futures.put(provider, executor.submit(() ->
+                        fetchProvider(executor, provider, entry.getValue()[0], entry.getValue()[1])));
+            }
+            for (Map.Entry<String, Future<ProviderCatalog>> entry : futures.entrySet()) {
+                try {
+                    ProviderCatalog catalog = entry.getValue().get();
+                    index(catalog);
+                    providers.put(entry.getKey(), catalog);
+                } catch (ExecutionException e) {
+                    String message = String.valueOf(e.getCause().getMessage());
+                    System.out.printf("Error: Catalog of \"%s\" not fetched%s: %s\n", entry.getKey(),
+                            providers.containsKey(entry.getKey()) ? ", the cached data is used" : "",
+                            message.contains("\n") ? message.substring(0, message.indexOf('\n')) : message);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        save();
+    }
+
+
+    /**
+     * Get the providers in the catalog
+     */
+    public Set<String> providers() {
+        return Collections.unmodifiableSet(providers.keySet());
+    }
+
+
+    /**
+     * Get all the entries of a kind (locations, images or hardware) of a provider
+     */
+    public Collection<Entry> list(String provider, String kind) {
+        ProviderCatalog catalog = providers.get(provider);
+        if (catalog == null || !catalog.byId.containsKey(kind)) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(catalog.byId.get(kind).values());
+    }
+
+
+    /**
+     * Get an entry of a kind by its id, or null if it does not exist
+     */
+    public Entry get(String provider, String kind, String id) {
+        ProviderCatalog catalog = providers.get(provider);
+        if (catalog == null || !catalog.byId.containsKey(kind)) {
+            return null;
+        }
+        return catalog.byId.get(kind).get(id);
+    }
+
+
+    /**
+     * Get the entries of a kind available in a location: the entries of the location, of its parents and
+     * the global entries
+     */
+    public List<Entry> find(String provider, String kind, String locationId) {
+        ProviderCatalog catalog = providers.get(provider);
+        List<Entry> found = new ArrayList<>();
+        if (catalog == null || !catalog.byLocation.containsKey(kind)) {
+            return found;
+        }
+        Map<String, List<Entry>> byLocation = catalog.byLocation.get(kind);
+        Set<String> locations = new LinkedHashSet<>();
+        for (String location = locationId; location != null && locations.add(location);
+             location = catalog.parents.get(location)) {
+            found.addAll(byLocation.getOrDefault(location, Collections.emptyList()));
+        }
+        if (!locations.contains("")) {
+            found.addAll(byLocation.getOrDefault("", Collections.emptyList()));
+        }
+        return found;
+    }
+
+
+    private ProviderCatalog fetchProvider(ExecutorService executor, String provider, String identity,
+                                          String credential) throws Exception {
+        long start = System.currentTimeMillis();
+        // Init
+        ComputeServiceContext context = ContextBuilder.newBuilder(provider)
+                .credentials(identity, credential)
+                .buildView(ComputeServiceContext.class);
+        try {
+            // Instantiate a ComputeService
+            ComputeService client = context.getComputeService();
+
+            // The three lists are requested at the same time
+            Future<Set<? extends Location>> locations = executor.submit(client::listAssignableLocations);
+            Future<Set<? extends Image>> images = executor.submit(client::listImages);
+            Future<Set<? extends Hardware>> hardware = executor.submit(client::listHardwareProfiles);
+
+            ProviderCatalog catalog = new ProviderCatalog();
+            List<Entry> locationEntries = new ArrayList<>();
+            for (Location location : locations.get()) {
+                locationEntries.add(new Entry(location.getId(), location.getScope().toString(),
+                        location.getParent(), location.getDescription()));
+                if (location.getParent() != null) {
+                    catalog.parents.put(location.getId(), location.getParent().getId());
+                }
+            }
+            List<Entry> imageEntries = new ArrayList<>();
+            for (Image image : images.get()) {
+                imageEntries.add(new Entry(image.getId(), image.getName(), image.getLocation(),
+                        describe(image.getOperatingSystem())));
+            }
+            List<Entry> hardwareEntries = new ArrayList<>();
+            for (Hardware profile : hardware.get()) {
+                hardwareEntries.add(new Entry(profile.getId(), profile.getName(), profile.getLocation(),
+                        describe(profile)));
+            }
+            catalog.entries.put(LOCATIONS, locationEntries);
+            catalog.entries.put(IMAGES, imageEntries);
+            catalog.entries.put(HARDWARE, hardwareEntries);
+            catalog.time = System.currentTimeMillis();
+
+            System.out.printf("Catalog of \"%s\" fetched in %d ms: %d locations, %d images, %d hardware profiles\n",
+                    provider, catalog.time - start, locationEntries.size(), imageEntries.size(),
+                    hardwareEntries.size());
+            return catalog;
+        } finally {
+            // Disconnect
+            context.close();
+        }
+    }
+
+
+    private static String describe(OperatingSystem os) {
+        if (os == null) {
+            return "";
+        }
+        return String.format("%s %s %s", os.getFamily(), os.getVersion() == null ? "" : os.getVersion(),
+                os.is64Bit() ? "64-bit" : "32-bit").replaceAll(" +", " ");
+    }
+
+
+    private static String describe(Hardware hardware) {
+        double cores = 0;
+        for (Processor processor : hardware.getProcessors()) {
+            cores += processor.getCores();
+        }
+        return String.format("%s cores, %d MB", cores == Math.rint(cores) ? String.valueOf((long) cores)
+                : String.valueOf(cores), hardware.getRam());
+    }
+
+
+    /**
+     * Build the index of a provider catalog
+     */
+    private static void index(ProviderCatalog catalog) {
+        catalog.byId = new HashMap<>();
+        catalog.byLocation = new HashMap<>();
+        if (catalog.parents == null) {
+            catalog.parents = new HashMap<>();
+        }
+        for (Map.Entry<String, List<Entry>> kind : catalog.entries.entrySet()) {
+            Map<String, Entry> byId = new LinkedHashMap<>();
+            Map<String, List<Entry>> byLocation = new HashMap<>();
+            for (Entry entry : kind.getValue()) {
+                byId.put(entry.id, entry);
+                byLocation.computeIfAbsent(entry.location == null ? "" : entry.location, l -> new ArrayList<>())
+                        .add(entry);
+            }
+            catalog.byId.put(kind.getKey(), byId);
+            catalog.byLocation.put(kind.getKey(), byLocation);
+        }
+    }
+
+
+    /**
+     * Save the cache, it is written to a temporary file first so a failed write does not lose the cache
+     */
+    private void save() throws IOException {
+        Cache cache = new Cache();
+        cache.providers = providers;
+        File file = new File(cacheFileName).getAbsoluteFile();
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            gson.toJson(cache, writer);
+        }
+        if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("Cache file \"" + cacheFileName + "\" not written");
+        }
+    }
+
+
+    /**
+     * Content of the cache file
+     */
+    private static class Cache {
+        Map<String, ProviderCatalog> providers;
+    }
+}
@@ -4,12 +4,24 @@
  *  - EC2 on AWS (Amazon Web Services)
  *  - Compute VM on Microsoft Azure
  *  - Compute Engine on Google Cloud Platform (GCP)
+ * Catalog mode, get the locations, images or hardware profiles from a local cache, fetched in parallel
+ * when it is older than its TTL, you must provide 2 parameters:
+ * catalog
+ * KIND     = locations, images, hardware, or refresh to fetch the catalog again
+ * Optional parameters:
+ * PROVIDER = aws-ec2 or google-compute-engine
+ * LOCATION = Only the entries available in a location
  */
 
 package example;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.jclouds.ContextBuilder;
@@ -25,9 +37,18 @@ public class ComputeServiceGetLocations {
     private static String azureAccountKey;
     private static String gcloudClientEmail;
     private static String gcloudPrivateKey;
+    private static Properties configuration;        // Configuration for the catalog
+
+    private static final List<String> KINDS = Arrays.asList(ComputeServiceCatalog.LOCATIONS,
+            ComputeServiceCatalog.IMAGES, ComputeServiceCatalog.HARDWARE, "refresh");
 
     public static void main(String[] args) throws IOException {
 
+        if (args.length > 0 && "catalog".equals(args[0])) {
+            catalog(args);
+            return;
+        }
+
         // Load Configuration from a file and get the authentication data for the cloud providers
         loadConfiguration();
 
@@ -74,6 +95,8 @@ public class ComputeServiceGetLocations {
         // Google Cloud
         gcloudClientEmail = prop.getProperty("gcloud_client_email");
         gcloudPrivateKey = prop.getProperty("gcloud_private_key");
+        // Catalog
+        configuration = prop;
     }
 
 
@@ -97,4 +120,81 @@ public class ComputeServiceGetLocations {
         // Disconnect
         context.close();
     }
+
+
+    /**
+     * Get the locations, images or hardware profiles from the catalog
+     */
+    private static void catalog(String[] args) {
+
+        if (args.length < 2 || !KINDS.contains(args[1])) {
+            System.out.println("Not enough parameters.\nProper Usage is: java -jar computeservicegetlocations.jar catalog <locations|images|hardware|refresh> [<PROVIDER>] [<LOCATION>]");
+            System.exit(1);
+        }
+
+        // The kind of entries, or refresh
+        String kind = args[1];
+        // Only one provider and one location
+        String providerName = args.length > 2 ? args[2] : null;
+        String locationId = args.length > 3 ? args[3] : null;
+
+        // Load Configuration from a file and get the authentication data for the cloud providers
+        loadConfiguration();
+
+        Map<String, String[]> credentials = new LinkedHashMap<>();
+        // ******************** AWS EC2 provider ********************
+        credentials.put("aws-ec2", new String[] {awsAccessKeyId, awsSecretKey});
+        // ******************** Azure Compute provider ********************
+        // Not in the catalog, like in the locations above
+        // ******************** Google Compute Engine provider ********************
+        credentials.put("google-compute-engine", new String[] {gcloudClientEmail, gcloudPrivateKey});
+
+        if (providerName != null) {
+            if (!credentials.containsKey(providerName)) {
+                System.out.println("Error: Unknown provider \"" + providerName + "\"");
+                System.exit(1);
+            }
+            credentials.keySet().retainAll(Arrays.asList(providerName));
+        }
+
+        ComputeServiceCatalog catalog = ComputeServiceCatalog.fromProperties(configuration);
+        try {
+            catalog.load();
+
+            // Only the providers without data or older than the TTL are fetched
+            Map<String, String[]> stale = new LinkedHashMap<>();
+            for (Map.Entry<String, String[]> entry : credentials.entrySet()) {
+                if ("refresh".equals(kind) || catalog.isStale(entry.getKey())) {
+                    stale.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!stale.isEmpty()) {
+                catalog.fetch(stale);
+            }
+
+            if ("refresh".equals(kind)) {
+                return;
+            }
+            for (String provider : credentials.keySet()) {
+                long age = catalog.age(provider);
+                if (age < 0) {
+                    continue;
+                }
+                Collection<ComputeServiceCatalog.Entry> entries = locationId == null
+                        ? catalog.list(provider, kind) : catalog.find(provider, kind, locationId);
+                System.out.printf("%s %s%s (%d entries, %d minutes old):\n", provider, kind,
+                        locationId == null ? "" : " in " + locationId, entries.size(), age / 60000);
+                for (ComputeServiceCatalog.Entry entry : entries) {
+                    System.out.printf("  - %s  %s  %s  %s\n", entry.id, entry.name,
+                            entry.location.isEmpty() ? "(global)" : entry.location, entry.description);
+                }
+                System.out.println();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: Interrupted");
+        } catch (IOException e) {
+            System.out.println("Error: IO Exception: " + e.getMessage());
+        }
+    }
 }